@@ -0,0 +1,251 @@
+package benchmark;
+
+import checkers.BitCheckerBoard;
+import checkers.CheckerBoard;
+import chess.ChessBoard;
+import common.Board;
+import common.FlatTree;
+import common.TreeNode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times the hot paths of the search with JMH, on fixed positions:<br>
+ * <code>recalculateMoves : generating the moves after a move (made and unmade as well)<br>
+ * deepCopy         : copying a board, as a child does when it is first selected<br>
+ * movePiece        : Board.movePiece(int), then unmakeMove<br>
+ * expand           : TreeNode.expand, generating and storing the moves of a node
+ * (after a move is made and unmade, so they are not cached)<br>
+ * simulate         : TreeNode.simulate, one random playout to the end of the game<br>
+ * selectAction     : one whole MCTS iteration, on trees of up to
+ * {@value #TREE_SIZE} iterations<br>
+ * raveSelectAction : the same with RAVE statistics<br>
+ * flatSelectAction : the same with FlatTree</code><br>
+ * Every benchmark goes through the positions of a game in turn, one per call,
+ * for every game in {@link #game}. The positions are taken from random games
+ * with a fixed seed, and the searches are seeded too, so every run does the
+ * same work. Every benchmark and game gets fresh JVMs, so the JIT compiler
+ * does not carry what it learned from one to the next.<br>
+ * Run from the root of the project with<br>
+ * <code>gradle :jmh:run --args="-prof gc"</code><br>
+ * The GC profiler adds the bytes allocated per call (gc.alloc.rate.norm)
+ * and the collections to every result. Other JMH options work too,
+ * e.g. <code>--args="-prof gc -p game=chess expand"</code>.
+ * @author Jed Wang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SearchBenchmark {
+    /**
+     * How many positions of every game are timed
+     */
+    private static final int POSITIONS = 8;
+
+    /**
+     * How many plies apart the positions are
+     */
+    private static final int PLIES_APART = 6;
+
+    /**
+     * How many iterations a tree gets before it is thrown away and started again
+     */
+    private static final int TREE_SIZE = 1000;
+
+    /**
+     * The RAVE equivalence parameter of raveSelectAction
+     */
+    private static final double RAVE_EQUIVALENCE = 300;
+
+    /**
+     * Which game's positions are timed
+     */
+    @Param({"checkers", "bitcheckers", "chess"})
+    public String game;
+
+    /**
+     * The positions, with their moves generated
+     */
+    private Board[] positions;
+
+    /**
+     * A node for every position, for expand and simulate
+     */
+    private TreeNode[] nodes;
+
+    /**
+     * The trees searched from every position
+     */
+    private TreeNode[] trees;
+
+    /**
+     * How many iterations the tree of every position has had
+     */
+    private int[] iterations;
+
+    /**
+     * The flat trees searched from every position
+     */
+    private FlatTree[] flatTrees;
+
+    /**
+     * Which position the next call uses
+     */
+    private int next;
+
+    /**
+     * Makes the positions of the game, and a node for each
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch(game) {
+            case "checkers":
+                positions = positions(new CheckerBoard());
+                break;
+            case "bitcheckers":
+                positions = positions(new BitCheckerBoard());
+                break;
+            case "chess":
+                positions = positions(new ChessBoard());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown game: " + game);
+        }
+        nodes = new TreeNode[positions.length];
+        for(int i = 0; i < positions.length; i++) {
+            nodes[i] = new TreeNode(positions[i].deepCopy());
+            nodes[i].setSeed(i);
+        }
+        trees = new TreeNode[positions.length];
+        iterations = new int[positions.length];
+        flatTrees = new FlatTree[positions.length];
+    }
+
+    /**
+     * Plays a random game and keeps some of its positions
+     * @param b the starting position
+     * @return the positions
+     */
+    private static Board[] positions(Board b) {
+        Random random = new Random(2017);
+        Board start = b.deepCopy();
+        List<Board> output = new ArrayList<>();
+        for(int ply = 0; output.size() < POSITIONS; ply++) {
+            b.recalculateMoves();
+            if(b.isFinished() || b.numOfLegalMoves() == 0) {
+                // start a new game, since this one ended too soon
+                b = start.deepCopy();
+                ply = -1;
+                continue;
+            }
+            if(ply % PLIES_APART == 0) output.add(b.deepCopy());
+            b.makeMove(b.getLegalMove(random.nextInt(b.numOfLegalMoves())));
+        }
+        for(Board position : output) {
+            position.recalculateMoves();
+        }
+        return output.toArray(new Board[output.size()]);
+    }
+
+    /**
+     * Determines which position the next call uses
+     * @return the index of the position
+     */
+    private int nextPosition() {
+        int output = next;
+        next = (next + 1) % positions.length;
+        return output;
+    }
+
+    @Benchmark
+    public void recalculateMoves(Blackhole blackhole) {
+        Board b = positions[nextPosition()];
+        b.makeMove(b.getLegalMove(0));
+        b.recalculateMoves();
+        blackhole.consume(b.numOfLegalMoves());
+        b.unmakeMove();
+        b.recalculateMoves();
+    }
+
+    @Benchmark
+    public Board deepCopy() {
+        return positions[nextPosition()].deepCopy();
+    }
+
+    @Benchmark
+    public long movePiece() {
+        Board b = positions[nextPosition()];
+        b.movePiece(0);
+        long hash = b.getHash();
+        b.unmakeMove();
+        return hash;
+    }
+
+    @Benchmark
+    public int expand() {
+        TreeNode node = nodes[nextPosition()];
+        // the board caches its moves, which expand would only copy
+        Board b = node.getBoard();
+        b.makeMove(b.getLegalMove(0));
+        b.unmakeMove();
+        node.expand();
+        return node.arity();
+    }
+
+    @Benchmark
+    public double simulate() {
+        TreeNode node = nodes[nextPosition()];
+        return node.simulate(node);
+    }
+
+    @Benchmark
+    public int selectAction() {
+        int i = nextPosition();
+        if(iterations[i]++ % TREE_SIZE == 0) {
+            trees[i] = new TreeNode(positions[i].deepCopy());
+            trees[i].setSeed(iterations[i]);
+        }
+        trees[i].selectAction();
+        return trees[i].arity();
+    }
+
+    @Benchmark
+    public int raveSelectAction() {
+        int i = nextPosition();
+        if(iterations[i]++ % TREE_SIZE == 0) {
+            trees[i] = new TreeNode(positions[i].deepCopy());
+            trees[i].setSeed(iterations[i]);
+            trees[i].setRave(RAVE_EQUIVALENCE);
+        }
+        trees[i].selectAction();
+        return trees[i].arity();
+    }
+
+    @Benchmark
+    public int flatSelectAction() {
+        int i = nextPosition();
+        if(iterations[i]++ % TREE_SIZE == 0) {
+            flatTrees[i] = new FlatTree(positions[i], TREE_SIZE * 64, iterations[i]);
+        }
+        flatTrees[i].selectAction();
+        return flatTrees[i].size();
+    }
+}
@@ -0,0 +1,126 @@
+package benchmark;
+
+import checkers.BitCheckerBoard;
+import checkers.CheckerBoard;
+import common.AbstractPiece;
+import common.Board;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times checkers move generation over positions from random games:<br>
+ * <code>per piece&nbsp;: every piece scans the whole board for a jump, as CheckerBoard used to<br>
+ * side-wide&nbsp;: CheckerBoard finds the side's captures once, then the other moves if there are none<br>
+ * bitboard&nbsp;&nbsp;: BitCheckerBoard shifts and masks whole sides at once</code><br>
+ * Every generation follows a move, so no generator can reuse its last answer.
+ * @author Jed Wang
+ */
+public class CheckersJumpBenchmark {
+    /**
+     * How many random games to take positions from
+     */
+    private static final int GAMES = 200;
+
+    /**
+     * How long to time each generator, in nanoseconds
+     */
+    private static final long RUN_TIME = 1000000000L;
+
+    /**
+     * The main method
+     * @param args the command line arguments (none)
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<Board> checkerBoards = new ArrayList<>(), bitBoards = new ArrayList<>();
+        for(int i = 0; i < GAMES; i++) {
+            Board cb = new CheckerBoard(), bcb = new BitCheckerBoard();
+            while(!cb.isFinished()) {
+                cb.recalculateMoves();
+                if(cb.numOfLegalMoves() == 0) break;
+                checkerBoards.add(cb.deepCopy());
+                bitBoards.add(bcb.deepCopy());
+                int move = cb.getLegalMove(random.nextInt(cb.numOfLegalMoves()));
+                cb.makeMove(move);
+                bcb.makeMove(move);
+            }
+        }
+        System.out.println(checkerBoards.size() + " positions");
+        // once to warm up, then again to measure
+        time(checkerBoards, true);
+        System.out.printf("per piece: %12.0f positions/s%n", time(checkerBoards, true));
+        time(checkerBoards, false);
+        System.out.printf("side-wide: %12.0f positions/s%n", time(checkerBoards, false));
+        time(bitBoards, false);
+        System.out.printf("bitboard:  %12.0f positions/s%n", time(bitBoards, false));
+    }
+
+    /**
+     * Times generating the moves of the positions
+     * @param boards the positions
+     * @param perPiece whether to generate the moves piece by piece,
+     *          or with the board's own recalculateMoves
+     * @return how many positions per second were generated
+     */
+    private static double time(List<Board> boards, boolean perPiece) {
+        int[] targets = new int[4];
+        long start = System.nanoTime(), end = start + RUN_TIME, runs = 0, count = 0;
+        long now;
+        do {
+            for(Board b : boards) {
+                b.recalculateMoves();
+                b.makeMove(b.getLegalMove(0));
+                if(perPiece) {
+                    count += perPieceMoves(b, targets);
+                } else {
+                    b.recalculateMoves();
+                    count += b.numOfLegalMoves();
+                }
+                b.unmakeMove();
+            }
+            runs += boards.size();
+            now = System.nanoTime();
+        } while(now < end);
+        // keeps the work from being optimized away
+        if(count == -1) System.out.println();
+        return runs * 1e9 / (now - start);
+    }
+
+    /**
+     * Counts the legal moves the way CheckerBoard used to:
+     * every piece asks whether its side can jump, scanning the whole board each time.
+     * @param b the position
+     * @param targets where to write the squares of each piece's moves
+     * @return how many legal moves there are
+     */
+    private static int perPieceMoves(Board b, int[] targets) {
+        int count = 0;
+        for(int index = 0; index < Board.NUM_SQUARES; index++) {
+            AbstractPiece piece = b.getPiece(index);
+            if(piece == null || piece.isWhite != b.currentPlayer()) continue;
+            if(scanForJump(b, piece.isWhite)) {
+                count += piece.legalCaptures(b, index, targets);
+            } else count += piece.allLegalMoves(b, index, targets);
+        }
+        return count;
+    }
+
+    /**
+     * Scans the whole board for a piece of one side that can jump
+     * @param b the position
+     * @param isWhite which side
+     * @return whether that side can jump
+     */
+    private static boolean scanForJump(Board b, boolean isWhite) {
+        int[] targets = new int[4];
+        for(int index = 0; index < Board.NUM_SQUARES; index++) {
+            AbstractPiece piece = b.getPiece(index);
+            if(piece != null && piece.isWhite == isWhite
+                    && piece.legalCaptures(b, index, targets) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
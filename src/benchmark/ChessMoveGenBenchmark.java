@@ -0,0 +1,107 @@
+package benchmark;
+
+import chess.ChessBoard;
+import common.AbstractPiece;
+import common.Board;
+
+/**
+ * Times legal chess move generation with the bitboard attack tables of
+ * {@link ChessBoard#recalculateMoves()} against the moves of the per-piece 
+ * classes (Pawn, Knight, Bishop, Rook, Queen and King), which walk the board
+ * square by square with Strings (without even testing for check).<br>
+ * The board caches its moves, so before every generation the first legal
+ * move is made and unmade, for both generators alike, and the moves
+ * are generated again from scratch.
+ * @author Jed Wang
+ */
+public class ChessMoveGenBenchmark {
+    /**
+     * The positions timed, in Forsyth-Edwards Notation
+     */
+    private static final String[] POSITIONS = {
+        ChessBoard.START_POSITION,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+    };
+
+    /**
+     * How long to time each generator on each position, in nanoseconds
+     */
+    private static final long RUN_TIME = 1000000000L;
+
+    /**
+     * The main method
+     * @param args the command line arguments (none)
+     */
+    public static void main(String[] args) {
+        System.out.printf("%-8s %6s %14s %14s%n", "position", "moves", "tables/s", "pieces/s");
+        for(int i = 0; i < POSITIONS.length; i++) {
+            ChessBoard cb = new ChessBoard(POSITIONS[i]);
+            cb.recalculateMoves();
+            int moves = cb.numOfLegalMoves();
+            // once to warm up, then again to measure
+            timeTables(cb);
+            double tables = timeTables(cb);
+            timePieces(cb);
+            double pieces = timePieces(cb);
+            System.out.printf("%-8d %6d %14.0f %14.0f%n", i + 1, moves, tables, pieces);
+        }
+    }
+
+    /**
+     * Times generating the legal moves from the attack tables
+     * @param cb the position
+     * @return how many times per second the moves were generated
+     */
+    private static double timeTables(ChessBoard cb) {
+        cb.recalculateMoves();
+        int first = cb.getLegalMove(0);
+        long start = System.nanoTime(), end = start + RUN_TIME, runs = 0;
+        long now;
+        int count = 0;
+        do {
+            for(int i = 0; i < 100; i++) {
+                // otherwise every generation after the first is a cache hit
+                cb.makeMove(first);
+                cb.unmakeMove();
+                cb.recalculateMoves();
+                count += cb.numOfLegalMoves();
+            }
+            runs += 100;
+            now = System.nanoTime();
+        } while(now < end);
+        // keeps the work from being optimized away
+        if(count == -1) System.out.println();
+        return runs * 1e9 / (now - start);
+    }
+
+    /**
+     * Times generating the moves with the per-piece classes
+     * @param cb the position
+     * @return how many times per second the moves were generated
+     */
+    private static double timePieces(ChessBoard cb) {
+        cb.recalculateMoves();
+        int first = cb.getLegalMove(0);
+        long start = System.nanoTime(), end = start + RUN_TIME, runs = 0;
+        long now;
+        int count = 0;
+        do {
+            // the same work around every generation as timeTables
+            cb.makeMove(first);
+            cb.unmakeMove();
+            for(int index = 0; index < Board.NUM_SQUARES; index++) {
+                AbstractPiece piece = cb.getPiece(index);
+                if(piece == null || piece.isWhite != cb.currentPlayer()) continue;
+                String square = Board.toSquare(index);
+                count += piece.allLegalMoves(cb, square).size();
+            }
+            runs++;
+            now = System.nanoTime();
+        } while(now < end);
+        // keeps the work from being optimized away
+        if(count == -1) System.out.println();
+        return runs * 1e9 / (now - start);
+    }
+}
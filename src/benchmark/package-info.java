@@ -0,0 +1,6 @@
+/**
+ * The <code>benchmark</code> package contains programs that time the move generators and the search.
+ * Run their main methods to compare the old and new code.
+ * The search itself is timed with JMH, in the jmh project next to src.
+ */
+package benchmark;
\ No newline at end of file
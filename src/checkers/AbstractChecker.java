@@ -2,7 +2,6 @@ package checkers;
 
 import common.AbstractPiece;
 import common.Board;
-import java.util.HashMap;
 import java.util.LinkedList;
 
 /**
@@ -25,6 +24,9 @@ public abstract class AbstractChecker extends AbstractPiece {
     public LinkedList<String> allLegalMoves(Board b, String currentPosition) {
         if(b instanceof CheckerBoard) {
             return allLegalMoves((CheckerBoard) b, currentPosition);
+        } else if(b instanceof BitCheckerBoard) {
+            int[] targets = new int[4];
+            return toSquares(targets, allLegalMoves(b, Board.toIndex(currentPosition), targets));
         } else throw new IllegalArgumentException("Can only use checker boards.");
     }
     
@@ -40,6 +42,9 @@ public abstract class AbstractChecker extends AbstractPiece {
     public LinkedList<String> legalMoves(Board b, String currentPosition) {
         if(b instanceof CheckerBoard) {
             return legalMoves((CheckerBoard) b, currentPosition);
+        } else if(b instanceof BitCheckerBoard) {
+            int[] targets = new int[4];
+            return toSquares(targets, legalMoves(b, Board.toIndex(currentPosition), targets));
         } else throw new IllegalArgumentException("Can only use checker boards.");
     }
     
@@ -55,6 +60,82 @@ public abstract class AbstractChecker extends AbstractPiece {
         } else return allLegalMoves(cb, currentPosition);
     }
 
+    @Override
+    public int legalMoves(Board b, int currentPosition, int[] targets) {
+        if(hasJump(b, isWhite)) {
+            return legalCaptures(b, currentPosition, targets);
+        } else return allLegalMoves(b, currentPosition, targets);
+    }
+    
+    /**
+     * Determines whether one side can jump, asking the board itself
+     * @param b the current state of the game
+     * @param isWhite which side to check
+     * @return whether that side can jump
+     * @throws IllegalArgumentException if b is not a checker board
+     */
+    private static boolean hasJump(Board b, boolean isWhite) {
+        if(b instanceof CheckerBoard) {
+            return ((CheckerBoard) b).hasJump(isWhite);
+        } else if(b instanceof BitCheckerBoard) {
+            return ((BitCheckerBoard) b).hasJump(isWhite);
+        } else throw new IllegalArgumentException("Can only use checker boards.");
+    }
+    
+    /**
+     * Turns square indices into squares
+     * @param targets the indices of the squares
+     * @param count how many indices there are
+     * @return the squares
+     */
+    private static LinkedList<String> toSquares(int[] targets, int count) {
+        LinkedList<String> output = new LinkedList<>();
+        for(int i = 0; i < count; i++) {
+            output.add(Board.toSquare(targets[i]));
+        }
+        return output;
+    }
+    
+    /**
+     * Adds the square one diagonal step away to targets, if it is empty
+     * @param b the current state of the game
+     * @param currentPosition the index of the current square of the checker
+     * @param colShift which way to step in columns, -1 or 1
+     * @param rowShift which way to step in rows, -1 or 1
+     * @param targets where to write the index of the square
+     * @param count how many squares are already in targets
+     * @return how many squares are in targets now
+     */
+    protected static int step(Board b, int currentPosition, int colShift, int rowShift, int[] targets, int count) {
+        int shifted = Board.shiftIndex(currentPosition, colShift, rowShift);
+        if(shifted != -1 && b.isEmptySquare(shifted)) {
+            targets[count++] = shifted;
+        }
+        return count;
+    }
+    
+    /**
+     * Adds the square one diagonal jump away to targets, if it is empty 
+     * and the square jumped over holds an opposing piece
+     * @param b the current state of the game
+     * @param currentPosition the index of the current square of the checker
+     * @param colShift which way to jump in columns, -1 or 1
+     * @param rowShift which way to jump in rows, -1 or 1
+     * @param targets where to write the index of the square
+     * @param count how many squares are already in targets
+     * @return how many squares are in targets now
+     */
+    protected int jump(Board b, int currentPosition, int colShift, int rowShift, int[] targets, int count) {
+        int fullShifted = Board.shiftIndex(currentPosition, 2 * colShift, 2 * rowShift);
+        if(fullShifted != -1 && b.isEmptySquare(fullShifted)) {
+            AbstractPiece jumped = b.getPiece(Board.shiftIndex(currentPosition, colShift, rowShift));
+            if(jumped != null && (jumped.isWhite ^ isWhite)) {
+                targets[count++] = fullShifted;
+            }
+        }
+        return count;
+    }
+
     /**
      * Returns a LinkedList with all captures this checker can make
      * @param b the current state of the game
@@ -65,6 +146,9 @@ public abstract class AbstractChecker extends AbstractPiece {
     public LinkedList<String> legalCaptures(Board b, String currentPosition) {
         if(b instanceof CheckerBoard) {
             return legalCaptures((CheckerBoard) b, currentPosition);
+        } else if(b instanceof BitCheckerBoard) {
+            int[] targets = new int[4];
+            return toSquares(targets, legalCaptures(b, Board.toIndex(currentPosition), targets));
         } else throw new IllegalArgumentException("Can only use checker boards.");
     }
     
@@ -0,0 +1,406 @@
+package checkers;
+
+import common.AbstractPiece;
+import common.Board;
+import common.Move;
+import common.Zobrist;
+import java.util.Arrays;
+
+/**
+ * A checker board that keeps its pieces as bit masks over the 32 playable
+ * (dark) squares instead of an array of pieces.<br>
+ * <br>
+ * The playable squares are numbered row by row, from the top left:<br>
+ * <code>row 0: b8 d8 f8 h8 = 0 1 2 3<br>
+ * row 1: a7 c7 e7 g7 = 4 5 6 7<br>
+ * ...<br>
+ * row 7: a1 c1 e1 g1 = 28 29 30 31</code><br>
+ * Moves are generated for a whole side at once by shifting and masking.<br>
+ * There is no array of pieces behind this board: placing a piece 
+ * (and so maybeMove) changes the masks, and getBoard() returns a 
+ * snapshot of them that changing does not affect the board.
+ * @author Jed Wang
+ */
+public class BitCheckerBoard extends Board {
+    /**
+     * Masks for the rows with an even index (the playable squares are on odd columns)
+     */
+    private static final int EVEN_ROWS = 0x0F0F0F0F;
+
+    /**
+     * Masks for the rows with an odd index (the playable squares are on even columns)
+     */
+    private static final int ODD_ROWS = 0xF0F0F0F0;
+
+    /**
+     * The top row (where white crowns) and the bottom row (where black crowns)
+     */
+    private static final int TOP_ROW = 0x0000000F, BOTTOM_ROW = 0xF0000000;
+
+    /**
+     * The leftmost and rightmost playable square of every row
+     */
+    private static final int LEFT_EDGE = 0x11111111, RIGHT_EDGE = 0x88888888;
+
+    /**
+     * The four diagonal directions, numbered as in {@link CheckerBoard#DIRECTIONS}.
+     */
+    private static final int UP_LEFT = 0, UP_RIGHT = 1, DOWN_LEFT = 2, DOWN_RIGHT = 3;
+
+    /**
+     * The direction opposite to each direction
+     */
+    private static final int[] OPPOSITE = {DOWN_RIGHT, DOWN_LEFT, UP_RIGHT, UP_LEFT};
+
+    /**
+     * The square index of every playable square
+     */
+    private static final int[] TO_INDEX = new int[32];
+
+    /**
+     * The playable square of every square index, or -1 if it is not playable
+     */
+    private static final int[] TO_PLAYABLE = new int[NUM_SQUARES];
+
+    static {
+        Arrays.fill(TO_PLAYABLE, -1);
+        for(int i = 0; i < TO_INDEX.length; i++) {
+            int row = i >>> 2, col = 2 * (i & 3) + ((row & 1) ^ 1);
+            TO_INDEX[i] = toIndex(col, row);
+            TO_PLAYABLE[TO_INDEX[i]] = i;
+        }
+    }
+
+    /**
+     * The pieces on the board: all white pieces, all black pieces and all kings
+     */
+    private int white, black, kings;
+
+    /**
+     * The number of moves that have been made without capturing.
+     */
+    private int movesWOCapture;
+
+    /**
+     * Instantiates a BitCheckerBoard.
+     */
+    public BitCheckerBoard() {
+        super(8, 8);
+    }
+
+    /**
+     * A private constructor that copies an existing BitCheckerBoard
+     * @param bcb the BitCheckerBoard to copy
+     */
+    private BitCheckerBoard(BitCheckerBoard bcb) {
+        super(bcb);
+        white = bcb.white;
+        black = bcb.black;
+        kings = bcb.kings;
+        movesWOCapture = bcb.movesWOCapture;
+    }
+
+    @Override
+    protected void boardSetup() {
+        black = 0x00000FFF;
+        white = 0xFFF00000;
+        kings = 0;
+        // the pieces live in the masks, getBoard() fills this in when asked
+        // and setPiece works on the masks, so nothing reads it otherwise
+        board = null;
+    }
+
+    /**
+     * Shifts every square of a mask one step in a direction.
+     * Squares that would leave the board are dropped.
+     * @param mask the squares to shift
+     * @param direction which direction to shift
+     * @return the shifted squares
+     */
+    private static int shift(int mask, int direction) {
+        switch(direction) {
+            case UP_LEFT:
+                return ((mask & EVEN_ROWS & ~TOP_ROW) >>> 4) | ((mask & ODD_ROWS & ~LEFT_EDGE) >>> 5);
+            case UP_RIGHT:
+                return ((mask & EVEN_ROWS & ~TOP_ROW & ~RIGHT_EDGE) >>> 3) | ((mask & ODD_ROWS) >>> 4);
+            case DOWN_LEFT:
+                return ((mask & EVEN_ROWS) << 4) | ((mask & ODD_ROWS & ~LEFT_EDGE & ~BOTTOM_ROW) << 3);
+            case DOWN_RIGHT:
+                return ((mask & EVEN_ROWS & ~RIGHT_EDGE) << 5) | ((mask & ODD_ROWS & ~BOTTOM_ROW) << 4);
+            default:
+                throw new IllegalArgumentException("Invalid direction");
+        }
+    }
+
+    /**
+     * Determines which pieces of a side can move in a direction
+     * @param isWhite which side
+     * @param direction which direction
+     * @return the pieces that may move that way
+     */
+    private int movers(boolean isWhite, int direction) {
+        int own = isWhite ? white : black;
+        boolean forward = isWhite ? direction <= UP_RIGHT : direction >= DOWN_LEFT;
+        return forward ? own : own & kings;
+    }
+
+    /**
+     * Determines which pieces of a side can jump.
+     * @param isWhite which side to check
+     * @return a mask of the pieces that can jump
+     */
+    private int jumpers(boolean isWhite) {
+        int empty = ~(white | black), enemy = isWhite ? black : white;
+        int output = 0;
+        for(int d = UP_LEFT; d <= DOWN_RIGHT; d++) {
+            int landing = shift(shift(movers(isWhite, d), d) & enemy, d) & empty;
+            output |= shift(shift(landing, OPPOSITE[d]), OPPOSITE[d]);
+        }
+        return output;
+    }
+
+    /**
+     * Determines whether one side can jump.
+     * @param isWhite which side to check
+     * @return whether one side can jump
+     */
+    public boolean hasJump(boolean isWhite) {
+        return jumpers(isWhite) != 0;
+    }
+
+    @Override
+    public void recalculateMoves() {
+        if(movesValid) return;
+        allLegalMoves.clear();
+        int jumpers = jumpers(playerIsWhite);
+        if(jumpers != 0) {
+            for(; jumpers != 0; jumpers &= jumpers - 1) {
+                int from = Integer.numberOfTrailingZeros(jumpers);
+                addJumps(from, from, 0, Move.create(TO_INDEX[from], TO_INDEX[from], Move.CAPTURE));
+            }
+            movesValid = true;
+            return;
+        }
+        int empty = ~(white | black);
+        for(int d = UP_LEFT; d <= DOWN_RIGHT; d++) {
+            int targets = shift(movers(playerIsWhite, d), d) & empty;
+            for(; targets != 0; targets &= targets - 1) {
+                int to = Integer.numberOfTrailingZeros(targets);
+                int from = shift(1 << to, OPPOSITE[d]);
+                int flags = 0;
+                if((from & kings) == 0 && (1 << to & (TOP_ROW | BOTTOM_ROW)) != 0) {
+                    flags = Move.PROMOTION;
+                }
+                allLegalMoves.add(Move.create(
+                        TO_INDEX[Integer.numberOfTrailingZeros(from)], TO_INDEX[to], flags));
+            }
+        }
+        movesValid = true;
+    }
+    
+    /**
+     * Adds every chain of jumps that continues a partial chain<br>
+     * A chain ends when no more jumps can be made or when a man is crowned. 
+     * Jumped pieces stay on the board until the move is over, 
+     * so they can be neither jumped again nor landed on.
+     * @param from the playable square the chain starts from
+     * @param at the playable square the piece has reached
+     * @param jumped the playable squares of the pieces jumped so far
+     * @param move the partial chain, as a packed move
+     */
+    private void addJumps(int from, int at, int jumped, int move) {
+        int fromBit = 1 << from;
+        boolean isWhite = (white & fromBit) != 0, isKing = (kings & fromBit) != 0, extended = false;
+        int empty = ~(white | black) | fromBit, enemy = (isWhite ? black : white) & ~jumped;
+        for(int d = UP_LEFT; d <= DOWN_RIGHT; d++) {
+            // men only jump forwards
+            if(!isKing && (isWhite ? d > UP_RIGHT : d < DOWN_LEFT)) continue;
+            int over = shift(1 << at, d) & enemy;
+            int land = shift(over, d) & empty;
+            if(land == 0) continue;
+            extended = true;
+            int to = Integer.numberOfTrailingZeros(land);
+            int next = Move.addStep(move, d, TO_INDEX[to]);
+            if(!isKing && (land & (isWhite ? TOP_ROW : BOTTOM_ROW)) != 0) {
+                allLegalMoves.add(next | Move.PROMOTION);
+            } else addJumps(from, to, jumped | over, next);
+        }
+        if(!extended && Move.getPathLength(move) > 0) allLegalMoves.add(move);
+    }
+
+    @Override
+    public void makeMove(int move) {
+        playMove(move);
+        switchPlayer();
+    }
+
+    /**
+     * Moves a piece, making every jump of its path, capturing and crowning 
+     * as needed, and pushes the undo record.<br>
+     * The record is the whole position before the move, in three longs.
+     * @param move a packed move (see {@link Move})
+     */
+    private void playMove(int move) {
+        movesValid = false;
+        pushUndo(hash);
+        pushUndo((white & 0xFFFFFFFFL) | ((long) black << 32));
+        pushUndo((kings & 0xFFFFFFFFL) | ((long) movesWOCapture << 32) | (playerIsWhite ? 1L << 63 : 0));
+        int fromWhere = Move.getFrom(move), toWhere = Move.getTo(move);
+        int fromBit = 1 << TO_PLAYABLE[fromWhere], toBit = 1 << TO_PLAYABLE[toWhere];
+        boolean isWhite = (white & fromBit) != 0, isKing = (kings & fromBit) != 0;
+        hash ^= Zobrist.piece(CheckerBoard.pieceCode(isKing, isWhite), fromWhere);
+        // a chain of jumps can end where it started
+        if(isWhite) {
+            white = (white & ~fromBit) | toBit;
+        } else {
+            black = (black & ~fromBit) | toBit;
+        }
+        if(isKing) {
+            kings = (kings & ~fromBit) | toBit;
+        } else if((toBit & (isWhite ? TOP_ROW : BOTTOM_ROW)) != 0) {
+            kings |= toBit;
+        }
+        hash ^= Zobrist.piece(CheckerBoard.pieceCode((kings & toBit) != 0, isWhite), toWhere);
+        if(Move.isCapture(move)) {
+            int at = fromWhere;
+            for(int i = 0; i < Move.getPathLength(move); i++) {
+                int[] direction = CheckerBoard.DIRECTIONS[Move.getPathStep(move, i)];
+                int jumpedIndex = shiftIndex(at, direction[0], direction[1]);
+                int jumped = 1 << TO_PLAYABLE[jumpedIndex];
+                hash ^= Zobrist.piece(CheckerBoard.pieceCode((kings & jumped) != 0, !isWhite), jumpedIndex);
+                white &= ~jumped;
+                black &= ~jumped;
+                kings &= ~jumped;
+                at = shiftIndex(at, 2 * direction[0], 2 * direction[1]);
+            }
+            movesWOCapture = 0;
+        } else movesWOCapture++;
+    }
+
+    @Override
+    public void unmakeMove() {
+        long record = popUndo();
+        kings = (int) record;
+        movesWOCapture = (int) ((record >>> 32) & 0x7FFFFFFF);
+        playerIsWhite = record < 0;
+        record = popUndo();
+        white = (int) record;
+        black = (int) (record >>> 32);
+        hash = popUndo();
+        movesValid = false;
+    }
+
+    @Override
+    public void pieceFromTo(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
+        int fromWhere = toIndex(fromWhereX, fromWhereY), toWhere = toIndex(toWhereX, toWhereY);
+        recalculateMoves();
+        for(int i = 0; i < allLegalMoves.size(); i++) {
+            int move = allLegalMoves.get(i);
+            if(Move.getFrom(move) == fromWhere && Move.getTo(move) == toWhere) {
+                playMove(move);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Places a piece on a square, or empties it, by changing the masks
+     * @param index the index of a square
+     * @param piece the piece to place, or null to empty the square
+     * @throws IllegalArgumentException if a piece is placed on a light square
+     */
+    @Override
+    protected void setPiece(int index, AbstractPiece piece) {
+        AbstractPiece old = getPiece(index);
+        if(TO_PLAYABLE[index] == -1) {
+            if(piece == null) return;
+            throw new IllegalArgumentException("Not a playable square");
+        }
+        if(old != null) hash ^= Zobrist.piece(pieceCode(old), index);
+        int bit = 1 << TO_PLAYABLE[index];
+        white &= ~bit;
+        black &= ~bit;
+        kings &= ~bit;
+        if(piece != null) {
+            if(piece.isWhite) {
+                white |= bit;
+            } else black |= bit;
+            if(piece instanceof KingChecker) kings |= bit;
+            hash ^= Zobrist.piece(pieceCode(piece), index);
+        }
+        movesValid = false;
+    }
+
+    @Override
+    protected int pieceCode(AbstractPiece piece) {
+        return CheckerBoard.pieceCode(piece instanceof KingChecker, piece.isWhite);
+    }
+
+    @Override
+    public int getPieceCount(int pieceCode) {
+        int side = (pieceCode & 1) == 0 ? white : black;
+        return Integer.bitCount(pieceCode >= 2 ? side & kings : side & ~kings);
+    }
+
+    @Override
+    public int getPieceCount(boolean isWhite) {
+        return Integer.bitCount(isWhite ? white : black);
+    }
+
+    @Override
+    public AbstractPiece getPiece(int index) {
+        if(!isValidIndex(index)) throw new IllegalArgumentException("Invalid square");
+        if(TO_PLAYABLE[index] == -1) return null;
+        int bit = 1 << TO_PLAYABLE[index];
+        if((white & bit) != 0) {
+            return ((kings & bit) != 0) ? CheckerBoard.WHITE_KING : CheckerBoard.WHITE_MAN;
+        } else if((black & bit) != 0) {
+            return ((kings & bit) != 0) ? CheckerBoard.BLACK_KING : CheckerBoard.BLACK_MAN;
+        } else return null;
+    }
+
+    @Override
+    public AbstractPiece[][] getBoard() {
+        if(board == null) {
+            board = new AbstractPiece[8][8];
+        }
+        for(int i = 0; i < board.length; i++) {
+            for(int j = 0; j < board[i].length; j++) {
+                board[i][j] = getPiece(i, j);
+            }
+        }
+        return board;
+    }
+
+    @Override
+    public void printBoard() {
+        getBoard();
+        super.printBoard();
+    }
+
+    @Override
+    public Board deepCopy() {
+        return new BitCheckerBoard(this);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return isDraw() || white == 0 || black == 0;
+    }
+
+    /**
+     * Determines whether the current game has ended in a draw
+     * @return whether the current game has ended in a draw
+     */
+    public boolean isDraw() {
+        return movesWOCapture >= 40;
+    }
+
+    @Override
+    public int getResult() {
+        if(isDraw()) return 0;
+        if(white != 0 && black == 0) return 1;
+        else if(black != 0 && white == 0) return -1;
+        else return 0;
+    }
+}
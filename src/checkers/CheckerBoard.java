@@ -2,8 +2,7 @@ package checkers;
 
 import common.AbstractPiece;
 import common.Board;
-import java.util.HashMap;
-import java.util.LinkedList;
+import common.Move;
 
 /**
  * A class that represents a checker board
@@ -15,6 +14,37 @@ public class CheckerBoard extends Board {
      */
     private int movesWOCapture = 0;
     
+    /**
+     * Which sides' jumps are known, and which sides can jump, 
+     * as bits: 1 for white, 2 for black<br>
+     * Forgotten whenever a piece is placed.
+     */
+    private int jumpsKnown, jumps;
+    
+    /**
+     * Where a piece writes the squares of its moves, since a checker never 
+     * has more than four.<br>
+     * Made the first time it is needed (the moves are first generated 
+     * before the fields are set) and reused after that.
+     */
+    private int[] targets;
+    
+    /**
+     * One piece of each kind, shared by every square and board it stands on
+     */
+    static final AbstractPiece WHITE_MAN = new StandardChecker(true),
+            BLACK_MAN = new StandardChecker(false),
+            WHITE_KING = new KingChecker(true),
+            BLACK_KING = new KingChecker(false);
+    
+    /**
+     * The four diagonal directions, as column and row shifts, 
+     * numbered as in the paths of jumps (see {@link Move#getPathStep(int, int)}):<br>
+     * 0 up and left, 1 up and right, 2 down and left, 3 down and right.<br>
+     * White men move up, black men move down.
+     */
+    static final int[][] DIRECTIONS = {{-1, -1}, {1, -1}, {-1, 1}, {1, 1}};
+    
     /**
      * Instantiates a CheckerBoard.
      */
@@ -27,82 +57,219 @@ public class CheckerBoard extends Board {
      * @param cb the CheckerBoard to copy
      */
     private CheckerBoard(CheckerBoard cb) {
-        super(8, 8);
-        playerIsWhite = cb.playerIsWhite;
-        for(int i = 0;i<8;i++) {
-            // copy from 0-8 from cb.board[i] to board[i]
-            System.arraycopy(cb.board[i], 0, board[i], 0, 8);
-        }
-        allLegalMoves = new HashMap<>(cb.allLegalMoves);
-        recalculateMoves();
+        super(cb);
+        movesWOCapture = cb.movesWOCapture;
+        jumpsKnown = cb.jumpsKnown;
+        jumps = cb.jumps;
     }
 
     @Override
     protected void boardSetup() {
-        board[1][0] = new StandardChecker(false);
-        board[3][0] = new StandardChecker(false);
-        board[5][0] = new StandardChecker(false);
-        board[7][0] = new StandardChecker(false);
-        board[0][1] = new StandardChecker(false);
-        board[2][1] = new StandardChecker(false);
-        board[4][1] = new StandardChecker(false);
-        board[6][1] = new StandardChecker(false);
-        board[1][2] = new StandardChecker(false);
-        board[3][2] = new StandardChecker(false);
-        board[5][2] = new StandardChecker(false);
-        board[7][2] = new StandardChecker(false);
+        board[1][0] = BLACK_MAN;
+        board[3][0] = BLACK_MAN;
+        board[5][0] = BLACK_MAN;
+        board[7][0] = BLACK_MAN;
+        board[0][1] = BLACK_MAN;
+        board[2][1] = BLACK_MAN;
+        board[4][1] = BLACK_MAN;
+        board[6][1] = BLACK_MAN;
+        board[1][2] = BLACK_MAN;
+        board[3][2] = BLACK_MAN;
+        board[5][2] = BLACK_MAN;
+        board[7][2] = BLACK_MAN;
         
-        board[0][5] = new StandardChecker(true);
-        board[2][5] = new StandardChecker(true);
-        board[4][5] = new StandardChecker(true);
-        board[6][5] = new StandardChecker(true);
-        board[1][6] = new StandardChecker(true);
-        board[3][6] = new StandardChecker(true);
-        board[5][6] = new StandardChecker(true);
-        board[7][6] = new StandardChecker(true);
-        board[0][7] = new StandardChecker(true);
-        board[2][7] = new StandardChecker(true);
-        board[4][7] = new StandardChecker(true);
-        board[6][7] = new StandardChecker(true);
+        board[0][5] = WHITE_MAN;
+        board[2][5] = WHITE_MAN;
+        board[4][5] = WHITE_MAN;
+        board[6][5] = WHITE_MAN;
+        board[1][6] = WHITE_MAN;
+        board[3][6] = WHITE_MAN;
+        board[5][6] = WHITE_MAN;
+        board[7][6] = WHITE_MAN;
+        board[0][7] = WHITE_MAN;
+        board[2][7] = WHITE_MAN;
+        board[4][7] = WHITE_MAN;
+        board[6][7] = WHITE_MAN;
     }
 
     @Override
-    public void movePiece(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
-        super.movePiece(fromWhereX, fromWhereY, toWhereX, toWhereY);
-        if(Math.abs(fromWhereX - toWhereX) == 2) {
-            movesWOCapture = 0;
-            board[(fromWhereX + toWhereX)/2][(toWhereY + fromWhereY)/2] = null;
+    public void pieceFromTo(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
+        int fromWhere = toIndex(fromWhereX, fromWhereY), toWhere = toIndex(toWhereX, toWhereY);
+        recalculateMoves();
+        for(int i = 0; i < allLegalMoves.size(); i++) {
+            int move = allLegalMoves.get(i);
+            if(Move.getFrom(move) == fromWhere && Move.getTo(move) == toWhere) {
+                doMove(move);
+                return;
+            }
         }
-        else movesWOCapture++;
     }
 
     @Override
-    public void pieceFromTo(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
-        AbstractPiece toMove = board[fromWhereX][fromWhereY];
-        String fromWhere = toSquare(fromWhereX, fromWhereY), toWhere = toSquare(toWhereX, toWhereY);
-        if(toMove.isLegalMove(this, fromWhere, toWhere)) {
-            if((toWhereY == 0) || (toWhereY == 7)) {
-                toMove = new KingChecker(toMove.isWhite);
+    public void makeMove(int move) {
+        doMove(move);
+        switchPlayer();
+    }
+    
+    /**
+     * Moves a piece, making every jump of its path, capturing and crowning 
+     * as needed, and pushes the undo record.<br>
+     * The record is a single long:<br>
+     * <code>bits 0-31&nbsp;: the move<br>
+     * bits 32-47: movesWOCapture before the move<br>
+     * bit 48&nbsp;&nbsp;&nbsp;: whether white was to move<br>
+     * bits 49-60: whether the piece captured by each jump was a king</code>
+     * @param move a packed move (see {@link Move})
+     */
+    private void doMove(int move) {
+        int fromWhere = Move.getFrom(move), toWhere = Move.getTo(move);
+        long record = (move & 0xFFFFFFFFL) | ((long) movesWOCapture << 32);
+        if(playerIsWhite) record |= 1L << 48;
+        AbstractPiece toMove = getPiece(fromWhere);
+        if(Move.isPromotion(move)) {
+            toMove = toMove.isWhite ? WHITE_KING : BLACK_KING;
+        }
+        setPiece(fromWhere, null);
+        if(Move.isCapture(move)) {
+            int at = fromWhere;
+            for(int i = 0; i < Move.getPathLength(move); i++) {
+                int[] direction = DIRECTIONS[Move.getPathStep(move, i)];
+                int jumped = shiftIndex(at, direction[0], direction[1]);
+                if(getPiece(jumped) instanceof KingChecker) record |= 1L << (49 + i);
+                setPiece(jumped, null);
+                at = shiftIndex(at, 2 * direction[0], 2 * direction[1]);
+            }
+            movesWOCapture = 0;
+        } else movesWOCapture++;
+        setPiece(toWhere, toMove);
+        pushUndo(record);
+    }
+
+    @Override
+    public void unmakeMove() {
+        long record = popUndo();
+        int move = (int) record;
+        int fromWhere = Move.getFrom(move), toWhere = Move.getTo(move);
+        AbstractPiece moved = getPiece(toWhere);
+        if(Move.isPromotion(move)) {
+            moved = moved.isWhite ? WHITE_MAN : BLACK_MAN;
+        }
+        setPiece(toWhere, null);
+        setPiece(fromWhere, moved);
+        if(Move.isCapture(move)) {
+            int at = fromWhere;
+            for(int i = 0; i < Move.getPathLength(move); i++) {
+                int[] direction = DIRECTIONS[Move.getPathStep(move, i)];
+                boolean wasKing = (record & (1L << (49 + i))) != 0;
+                AbstractPiece jumped = moved.isWhite 
+                        ? (wasKing ? BLACK_KING : BLACK_MAN) 
+                        : (wasKing ? WHITE_KING : WHITE_MAN);
+                setPiece(shiftIndex(at, direction[0], direction[1]), jumped);
+                at = shiftIndex(at, 2 * direction[0], 2 * direction[1]);
             }
-            board[toWhereX][toWhereY] = toMove;
-            board[fromWhereX][fromWhereY] = null;
         }
+        movesWOCapture = (int) ((record >>> 32) & 0xFFFF);
+        setCurrentPlayer((record & (1L << 48)) != 0);
     }
     
+    @Override
+    protected int pieceCode(AbstractPiece piece) {
+        return pieceCode(piece instanceof KingChecker, piece.isWhite);
+    }
+    
+    /**
+     * Determines which kind of piece a checker is, for hashing and 
+     * {@link #getPieceCount(int)}
+     * @param isKing whether the checker is a king
+     * @param isWhite whether the checker is white
+     * @return 0 for a white man, 1 for a black man, 2 for a white king, 3 for a black king
+     */
+    public static int pieceCode(boolean isKing, boolean isWhite) {
+        return (isKing ? 2 : 0) + (isWhite ? 0 : 1);
+    }
+    
+    /**
+     * Recalculates all of the legal moves, unless they are still up to date<br>
+     * The captures of the whole side are found in one pass, each as a 
+     * complete chain of jumps; the other moves are only generated if there are none.
+     */
     @Override
     public void recalculateMoves() {
-        allLegalMoves = new HashMap<>();
-        for(int i = 0; i < board.length; i++) {
-            for(int j = 0; j < board[i].length; j++) {
-                if(board[i][j] == null) continue;
-                if(board[i][j].isWhite == playerIsWhite) {
-                    String current = Board.toSquare(i, j);
-                    LinkedList<String> moves = board[i][j].legalMoves(this, current);
-                    allLegalMoves.put(current, moves);
-                }
+        if(movesValid) return;
+        allLegalMoves.clear();
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = board[indexColumn(index)][indexRow(index)];
+            if(piece == null || piece.isWhite != playerIsWhite) continue;
+            addJumps(index, index, 0, piece, Move.create(index, index, Move.CAPTURE));
+        }
+        setJump(playerIsWhite, !allLegalMoves.isEmpty());
+        if(allLegalMoves.isEmpty()) addSteps();
+        movesValid = true;
+    }
+    
+    /**
+     * Adds every chain of jumps that continues a partial chain<br>
+     * A chain ends when no more jumps can be made or when a man is crowned. 
+     * Jumped pieces stay on the board until the move is over, 
+     * so they can be neither jumped again nor landed on.
+     * @param fromWhere the index of the square the chain starts from
+     * @param at the index of the square the piece has reached
+     * @param jumped the squares of the pieces jumped so far, one bit per index
+     * @param piece the piece that jumps
+     * @param move the partial chain, as a packed move
+     */
+    private void addJumps(int fromWhere, int at, long jumped, AbstractPiece piece, int move) {
+        boolean isKing = piece instanceof KingChecker, extended = false;
+        for(int d = 0; d < DIRECTIONS.length; d++) {
+            // men only jump forwards
+            if(!isKing && (piece.isWhite ? d > 1 : d < 2)) continue;
+            int over = shiftIndex(at, DIRECTIONS[d][0], DIRECTIONS[d][1]);
+            int land = shiftIndex(at, 2 * DIRECTIONS[d][0], 2 * DIRECTIONS[d][1]);
+            if(land == -1 || (land != fromWhere && !isEmptySquare(land))) continue;
+            AbstractPiece victim = getPiece(over);
+            if(victim == null || victim.isWhite == piece.isWhite || (jumped & (1L << over)) != 0) continue;
+            extended = true;
+            int next = Move.addStep(move, d, land);
+            if(!isKing && (indexRow(land) == 0 || indexRow(land) == 7)) {
+                allLegalMoves.add(next | Move.PROMOTION);
+            } else addJumps(fromWhere, land, jumped | (1L << over), piece, next);
+        }
+        if(!extended && Move.getPathLength(move) > 0) allLegalMoves.add(move);
+    }
+    
+    /**
+     * Adds the moves that don't capture of every piece of the player to move
+     */
+    private void addSteps() {
+        if(targets == null) targets = new int[4];
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = board[indexColumn(index)][indexRow(index)];
+            if(piece == null || piece.isWhite != playerIsWhite) continue;
+            int numTargets = piece.allLegalMoves(this, index, targets);
+            for(int i = 0; i < numTargets; i++) {
+                allLegalMoves.add(Move.create(index, targets[i], moveFlags(piece, index, targets[i])));
             }
         }
     }
+    
+    /**
+     * Determines the flags of a checkers move
+     * @param piece the piece that moves
+     * @param fromWhere the index of the square the piece moves from
+     * @param toWhere the index of the square the piece moves to
+     * @return the flags of the move (see {@link Move})
+     */
+    static int moveFlags(AbstractPiece piece, int fromWhere, int toWhere) {
+        int flags = 0;
+        if(Math.abs(indexRow(fromWhere) - indexRow(toWhere)) == 2) {
+            flags |= Move.CAPTURE;
+        }
+        if(piece instanceof StandardChecker && 
+                (indexRow(toWhere) == 0 || indexRow(toWhere) == 7)) {
+            flags |= Move.PROMOTION;
+        }
+        return flags;
+    }
 
     @Override
     public Board deepCopy() {
@@ -111,20 +278,7 @@ public class CheckerBoard extends Board {
 
     @Override
     public boolean isFinished() {
-        if(isDraw()) return true;
-        boolean hasWhite = false, hasBlack = false;
-        for(int i = 0;i<board.length;i++) {
-            for(int j = 0;j<board[i].length;j++) {
-                if(board[i][j] != null) {
-                    if(board[i][j].isWhite)
-                        hasWhite = true;
-                    else 
-                        hasBlack = true;
-                }
-                if(hasWhite && hasBlack) return false;
-            }
-        }
-        return true;
+        return isDraw() || getPieceCount(true) == 0 || getPieceCount(false) == 0;
     }
     
     /**
@@ -138,35 +292,56 @@ public class CheckerBoard extends Board {
     @Override
     public int getResult() {
         if(isDraw()) return 0;
-        boolean hasWhite = false, hasBlack = false;
-        for(int i = 0;i<board.length;i++) {
-            for(int j = 0;j<board[i].length;j++) {
-                if(board[i][j] != null) {
-                    if(board[i][j].isWhite)
-                        hasWhite = true;
-                    else 
-                        hasBlack = true;
-                }
-                if(hasWhite && hasBlack) return 0;
-            }
-        }
-        if(hasWhite) return 1;
-        else if(hasBlack) return -1;
+        boolean hasWhite = getPieceCount(true) != 0, hasBlack = getPieceCount(false) != 0;
+        if(hasWhite && !hasBlack) return 1;
+        else if(hasBlack && !hasWhite) return -1;
         else return 0;
     }
     
+    @Override
+    protected void setPiece(int index, AbstractPiece piece) {
+        jumpsKnown = 0;
+        super.setPiece(index, piece);
+    }
+    
     /**
-     * Determines whether one side can jump.
+     * Determines whether one side can jump.<br>
+     * The answer is remembered until a piece moves.
      * @param isWhite which side to check
      * @return whether one side can jump
      */
     public boolean hasJump(boolean isWhite) {
+        int side = isWhite ? 1 : 2;
+        if((jumpsKnown & side) == 0) setJump(isWhite, findJump(isWhite));
+        return (jumps & side) != 0;
+    }
+    
+    /**
+     * Remembers whether one side can jump
+     * @param isWhite which side
+     * @param canJump whether that side can jump
+     */
+    private void setJump(boolean isWhite, boolean canJump) {
+        int side = isWhite ? 1 : 2;
+        jumpsKnown |= side;
+        if(canJump) {
+            jumps |= side;
+        } else jumps &= ~side;
+    }
+    
+    /**
+     * Searches the board for a piece of one side that can jump.
+     * @param isWhite which side to check
+     * @return whether one side can jump
+     */
+    private boolean findJump(boolean isWhite) {
+        if(targets == null) targets = new int[4];
         for(int i = 0;i<board.length;i++) {
             for(int j = 0;j<board[i].length;j++) {
                 if(board[i][j] != null) {
                     AbstractPiece temp = board[i][j];
                     if(temp.isWhite == isWhite) {
-                        if(!temp.legalCaptures(this, toSquare(i, j)).isEmpty()) {
+                        if(temp.legalCaptures(this, toIndex(i, j), targets) != 0) {
                             return true;
                         }
                     }
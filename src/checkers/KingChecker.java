@@ -94,6 +94,22 @@ public class KingChecker extends AbstractChecker {
         return output;
     }
 
+    @Override
+    public int allLegalMoves(Board b, int currentPosition, int[] targets) {
+        int count = step(b, currentPosition, 1, -1, targets, 0);
+        count = step(b, currentPosition, -1, -1, targets, count);
+        count = step(b, currentPosition, 1, 1, targets, count);
+        return step(b, currentPosition, -1, 1, targets, count);
+    }
+
+    @Override
+    public int legalCaptures(Board b, int currentPosition, int[] targets) {
+        int count = jump(b, currentPosition, 1, -1, targets, 0);
+        count = jump(b, currentPosition, -1, -1, targets, count);
+        count = jump(b, currentPosition, 1, 1, targets, count);
+        return jump(b, currentPosition, -1, 1, targets, count);
+    }
+
     @Override
     public String getCharRepresentation() {
         return "K";
@@ -100,6 +100,20 @@ public class StandardChecker extends AbstractChecker {
         return output;
     }
 
+    @Override
+    public int allLegalMoves(Board b, int currentPosition, int[] targets) {
+        int rowShift = isWhite ? -1 : 1;
+        int count = step(b, currentPosition, 1, rowShift, targets, 0);
+        return step(b, currentPosition, -1, rowShift, targets, count);
+    }
+
+    @Override
+    public int legalCaptures(Board b, int currentPosition, int[] targets) {
+        int rowShift = isWhite ? -1 : 1;
+        int count = jump(b, currentPosition, 1, rowShift, targets, 0);
+        return jump(b, currentPosition, -1, rowShift, targets, count);
+    }
+
     @Override
     public String getCharRepresentation() {
         return "O";
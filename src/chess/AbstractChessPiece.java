@@ -23,27 +23,22 @@ public abstract class AbstractChessPiece extends AbstractPiece {
      * @return the legal moves this piece can make
      */
     public LinkedList<String> legalMoves(ChessBoard cb, String currentPosition) {
-        LinkedList<String> allLegal = allLegalMoves(cb, currentPosition);
+        int[] targets = new int[Board.NUM_SQUARES];
+        int numTargets = legalMoves(cb, Board.toIndex(currentPosition), targets);
         LinkedList<String> output = new LinkedList<>();
-        AbstractPiece[][] initLayout = new AbstractPiece[cb.getBoard().length][cb.getBoard()[0].length];
-        for(int i = 0; i < cb.getBoard().length; i++) {
-            for(int j = 0; j < cb.getBoard()[i].length; j++) {
-                initLayout[i][j] = cb.getBoard()[i][j];
-            }
-        }
-        for(String square:allLegal) {
-            cb.maybeMove(currentPosition, square);
-            if(getCharRepresentation().equals("P") && 
-                    (ChessBoard.getRow(square) == 0 
-                    || ChessBoard.getRow(square) == 7)) 
-                cb.placePiece(new Queen(isWhite), square);
-            if(!cb.inCheck(isWhite)) output.add(square);
-            cb.setBoard(initLayout);
-            if(getCharRepresentation().equals("K")) cb.resetKingPos(isWhite);
+        for(int i = 0; i < numTargets; i++) {
+            output.add(Board.toSquare(targets[i]));
         }
         return output;
     }
 
+    @Override
+    public int legalMoves(Board b, int currentPosition, int[] targets) {
+        if(b instanceof ChessBoard) {
+            return ((ChessBoard) b).legalTargets(currentPosition, targets);
+        } else throw new IllegalArgumentException("Can only use chess boards.");
+    }
+
     @Override
     public LinkedList<String> allLegalMoves(Board b, String currentPosition) {
         if(b instanceof ChessBoard) {
@@ -0,0 +1,344 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * Precomputed attack tables for chess pieces on bitboards.<br>
+ * <br>
+ * A bitboard is a long with one bit per square: bit i stands for the square
+ * with index i (see {@link common.Board#toIndex(int, int)}), so a8 is bit 0
+ * and h1 is bit 63.<br>
+ * Knights, kings and pawns look their attacks up directly. Rooks and bishops
+ * use magic bitboards: the pieces on a slider's rays are multiplied by a
+ * magic number and shifted down into an index of a table of attack sets,
+ * so a slider's attacks cost a multiply and a lookup wherever it stands.<br>
+ * All of the tables are built once, when this class is loaded.
+ * @author Jed Wang
+ */
+public final class Bitboards {
+    /**
+     * The directions a rook slides in, as column and row shifts
+     */
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+
+    /**
+     * The directions a bishop slides in, as column and row shifts
+     */
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    /**
+     * The jumps a knight can make, as column and row shifts
+     */
+    private static final int[][] KNIGHT_JUMPS = {{1, 2}, {2, 1}, {2, -1}, {1, -2},
+        {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+
+    /**
+     * The squares a knight attacks from every square
+     */
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+
+    /**
+     * The squares a king attacks from every square
+     */
+    private static final long[] KING_ATTACKS = new long[64];
+
+    /**
+     * The squares a pawn attacks from every square, white's first
+     */
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    /**
+     * The squares strictly between two squares on the same row, column or diagonal, 
+     * or 0 if they are not on one
+     */
+    private static final long[][] BETWEEN = new long[64][64];
+
+    /**
+     * The whole row, column or diagonal through two squares, 
+     * or 0 if they are not on one
+     */
+    private static final long[][] LINE = new long[64][64];
+
+    /**
+     * The leftmost and rightmost columns
+     */
+    private static final long FILE_A = 0x0101010101010101L, FILE_H = 0x8080808080808080L;
+
+    /**
+     * The squares whose occupants can block a rook or bishop on every square<br>
+     * The last square of every ray is left out, since it cannot block anything.
+     */
+    private static final long[] ROOK_MASKS = new long[64], BISHOP_MASKS = new long[64];
+
+    /**
+     * The magic numbers of every square
+     */
+    private static final long[] ROOK_MAGICS = new long[64], BISHOP_MAGICS = new long[64];
+
+    /**
+     * How far down to shift a product to index the attack tables
+     */
+    private static final int[] ROOK_SHIFTS = new int[64], BISHOP_SHIFTS = new int[64];
+
+    /**
+     * The attacks of a rook or bishop on every square, indexed by magic
+     */
+    private static final long[][] ROOK_TABLES = new long[64][], BISHOP_TABLES = new long[64][];
+
+    static {
+        for(int square = 0; square < 64; square++) {
+            int col = square & 7, row = square >>> 3;
+            for(int[] jump : KNIGHT_JUMPS) {
+                KNIGHT_ATTACKS[square] |= bit(col + jump[0], row + jump[1]);
+            }
+            for(int i = -1; i <= 1; i++) {
+                for(int j = -1; j <= 1; j++) {
+                    if(i != 0 || j != 0) KING_ATTACKS[square] |= bit(col + i, row + j);
+                }
+            }
+            // white pawns move up (towards row 0), black pawns move down
+            PAWN_ATTACKS[0][square] = bit(col - 1, row - 1) | bit(col + 1, row - 1);
+            PAWN_ATTACKS[1][square] = bit(col - 1, row + 1) | bit(col + 1, row + 1);
+            for(int[][] directions : new int[][][] {ROOK_DIRECTIONS, BISHOP_DIRECTIONS}) {
+                for(int[] direction : directions) {
+                    long line = (1L << square) | ray(col, row, direction[0], direction[1]) 
+                            | ray(col, row, -direction[0], -direction[1]);
+                    long between = 0;
+                    for(int c = col + direction[0], r = row + direction[1]; bit(c, r) != 0; 
+                            c += direction[0], r += direction[1]) {
+                        BETWEEN[square][r * 8 + c] = between;
+                        LINE[square][r * 8 + c] = line;
+                        between |= bit(c, r);
+                    }
+                }
+            }
+        }
+        // a fixed seed, so the same magics are found every time
+        Random random = new Random(0x5DEECE66DL);
+        for(int square = 0; square < 64; square++) {
+            ROOK_MASKS[square] = blockerMask(square, ROOK_DIRECTIONS);
+            BISHOP_MASKS[square] = blockerMask(square, BISHOP_DIRECTIONS);
+            findMagic(square, ROOK_DIRECTIONS, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_TABLES, random);
+            findMagic(square, BISHOP_DIRECTIONS, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_TABLES, random);
+        }
+    }
+
+    /**
+     * No instances.
+     */
+    private Bitboards() {
+    }
+
+    /**
+     * Returns the bit of a square
+     * @param col the column of the square
+     * @param row the row of the square
+     * @return the bit of the square, or 0 if it is off the board
+     */
+    private static long bit(int col, int row) {
+        if(col < 0 || col > 7 || row < 0 || row > 7) return 0;
+        return 1L << (row * 8 + col);
+    }
+
+    /**
+     * Returns every square from a square to the edge of the board in one direction
+     * @param col the column of the square
+     * @param row the row of the square
+     * @param colShift the column step of the direction
+     * @param rowShift the row step of the direction
+     * @return the squares, not including the starting square
+     */
+    private static long ray(int col, int row, int colShift, int rowShift) {
+        long output = 0;
+        for(col += colShift, row += rowShift; bit(col, row) != 0; col += colShift, row += rowShift) {
+            output |= bit(col, row);
+        }
+        return output;
+    }
+
+    /**
+     * Slides from a square in some directions, square by square,
+     * until the edge of the board or an occupied square.<br>
+     * Only used to fill the tables.
+     * @param square the index of the square to slide from
+     * @param occupied the occupied squares
+     * @param directions the directions to slide in
+     * @return the squares reached, including the occupied squares that end each ray
+     */
+    private static long slide(int square, long occupied, int[][] directions) {
+        long output = 0;
+        for(int[] direction : directions) {
+            int col = (square & 7) + direction[0], row = (square >>> 3) + direction[1];
+            while(col >= 0 && col <= 7 && row >= 0 && row <= 7) {
+                long b = bit(col, row);
+                output |= b;
+                if((occupied & b) != 0) break;
+                col += direction[0];
+                row += direction[1];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Determines which squares can block a slider
+     * @param square the index of the slider's square
+     * @param directions the directions the slider slides in
+     * @return every square on the slider's rays, except the last of each ray
+     */
+    private static long blockerMask(int square, int[][] directions) {
+        long output = 0;
+        for(int[] direction : directions) {
+            int col = (square & 7) + direction[0], row = (square >>> 3) + direction[1];
+            while(bit(col + direction[0], row + direction[1]) != 0) {
+                output |= bit(col, row);
+                col += direction[0];
+                row += direction[1];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Finds a magic number for a square by trial and error, and fills in its attack table.<br>
+     * A magic number works if no two sets of blockers with different attacks
+     * are sent to the same index.
+     * @param square the index of the square
+     * @param directions the directions the slider slides in
+     * @param masks the blocker masks
+     * @param magics where to store the magic number
+     * @param shifts where to store the shift
+     * @param tables where to store the attack table
+     * @param random the source of candidate magic numbers
+     */
+    private static void findMagic(int square, int[][] directions, long[] masks,
+            long[] magics, int[] shifts, long[][] tables, Random random) {
+        long mask = masks[square];
+        int bits = Long.bitCount(mask), size = 1 << bits;
+        long[] blockers = new long[size], attacks = new long[size];
+        // every subset of the mask (the Carry-Rippler trick)
+        long subset = 0;
+        for(int i = 0; i < size; i++) {
+            blockers[i] = subset;
+            attacks[i] = slide(square, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+        long[] table = new long[size];
+        int[] usedBy = new int[size];
+        for(int attempt = 1; ; attempt++) {
+            // few set bits make for good candidates
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            if(Long.bitCount((mask * magic) >>> 56) < 6) continue;
+            boolean works = true;
+            for(int i = 0; i < size && works; i++) {
+                int index = (int) ((blockers[i] * magic) >>> (64 - bits));
+                if(usedBy[index] != attempt) {
+                    usedBy[index] = attempt;
+                    table[index] = attacks[i];
+                } else if(table[index] != attacks[i]) {
+                    works = false;
+                }
+            }
+            if(works) {
+                magics[square] = magic;
+                shifts[square] = 64 - bits;
+                tables[square] = table;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the squares a knight attacks
+     * @param square the index of the knight's square
+     * @return the attacked squares
+     */
+    public static long knightAttacks(int square) {
+        return KNIGHT_ATTACKS[square];
+    }
+
+    /**
+     * Returns the squares a king attacks
+     * @param square the index of the king's square
+     * @return the attacked squares
+     */
+    public static long kingAttacks(int square) {
+        return KING_ATTACKS[square];
+    }
+
+    /**
+     * Returns the squares a pawn attacks
+     * @param isWhite whether the pawn is white
+     * @param square the index of the pawn's square
+     * @return the attacked squares
+     */
+    public static long pawnAttacks(boolean isWhite, int square) {
+        return PAWN_ATTACKS[isWhite ? 0 : 1][square];
+    }
+
+    /**
+     * Returns the squares a group of pawns attack
+     * @param isWhite whether the pawns are white
+     * @param pawns the squares of the pawns
+     * @return the attacked squares
+     */
+    public static long pawnAttacks(boolean isWhite, long pawns) {
+        if(isWhite) {
+            return ((pawns & ~FILE_A) >>> 9) | ((pawns & ~FILE_H) >>> 7);
+        } else return ((pawns & ~FILE_A) << 7) | ((pawns & ~FILE_H) << 9);
+    }
+
+    /**
+     * Returns the squares strictly between two squares
+     * @param from the index of one square
+     * @param to the index of the other square
+     * @return the squares between them, or 0 if they are not on the same 
+     *          row, column or diagonal
+     */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+
+    /**
+     * Returns the row, column or diagonal through two squares
+     * @param from the index of one square
+     * @param to the index of the other square
+     * @return every square of the line, from edge to edge, or 0 if the 
+     *          squares are not on the same row, column or diagonal
+     */
+    public static long line(int from, int to) {
+        return LINE[from][to];
+    }
+
+    /**
+     * Returns the squares a rook attacks
+     * @param square the index of the rook's square
+     * @param occupied the occupied squares
+     * @return the attacked squares, including the first occupied square of every ray
+     */
+    public static long rookAttacks(int square, long occupied) {
+        long blockers = occupied & ROOK_MASKS[square];
+        return ROOK_TABLES[square][(int) ((blockers * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    /**
+     * Returns the squares a bishop attacks
+     * @param square the index of the bishop's square
+     * @param occupied the occupied squares
+     * @return the attacked squares, including the first occupied square of every ray
+     */
+    public static long bishopAttacks(int square, long occupied) {
+        long blockers = occupied & BISHOP_MASKS[square];
+        return BISHOP_TABLES[square][(int) ((blockers * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    /**
+     * Returns the squares a queen attacks
+     * @param square the index of the queen's square
+     * @param occupied the occupied squares
+     * @return the attacked squares, including the first occupied square of every ray
+     */
+    public static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+}
@@ -1,14 +1,90 @@
 package chess;
 
+import common.AbstractPiece;
 import common.Board;
-import java.util.HashMap;
+import common.Move;
+import common.MoveList;
+import common.Zobrist;
+import java.util.Arrays;
 
 public class ChessBoard extends Board {
     
     /**
-     * A Map of the king's position
+     * The castling rights, OR'ed together in castlingRights
      */
-    private HashMap<Boolean, String> kingPos;
+    public static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2, 
+            BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+    
+    /**
+     * The kinds of pieces, as used by the bitboards and the promotions of moves
+     */
+    public static final int PAWN = 0, KNIGHT = 1, BISHOP = 2, ROOK = 3, QUEEN = 4, KING = 5;
+    
+    /**
+     * The position at the start of a game, in Forsyth-Edwards Notation
+     */
+    public static final String START_POSITION = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    
+    /**
+     * The castling rights lost when a piece moves from or to each square
+     */
+    private static final int[] CASTLING_LOST = new int[NUM_SQUARES];
+    
+    static {
+        CASTLING_LOST[toIndex("e1")] = WHITE_KINGSIDE | WHITE_QUEENSIDE;
+        CASTLING_LOST[toIndex("h1")] = WHITE_KINGSIDE;
+        CASTLING_LOST[toIndex("a1")] = WHITE_QUEENSIDE;
+        CASTLING_LOST[toIndex("e8")] = BLACK_KINGSIDE | BLACK_QUEENSIDE;
+        CASTLING_LOST[toIndex("h8")] = BLACK_KINGSIDE;
+        CASTLING_LOST[toIndex("a8")] = BLACK_QUEENSIDE;
+    }
+    
+    /**
+     * The squares of every kind of piece, indexed by pieceCode
+     * (see {@link Bitboards})
+     */
+    private long[] pieces;
+    
+    /**
+     * The squares of all of each side's pieces, white's first
+     */
+    private long[] sides;
+    
+    /**
+     * The squares with a piece on them
+     */
+    private long occupied;
+    
+    /**
+     * The index of the square each king is on, white's first
+     */
+    private int[] kingSquare;
+    
+    /**
+     * Which castling moves are still allowed
+     */
+    private int castlingRights;
+    
+    /**
+     * The index of the square a pawn can capture onto en passant, or -1 if none
+     */
+    private int enPassant;
+    
+    /**
+     * The number of moves made since the last capture or pawn move<br>
+     * Controls the fifty-move rule
+     */
+    private int halfmoveClock;
+    
+    /**
+     * The piece moved and the piece captured by every move made, for unmaking
+     */
+    private AbstractPiece[] pieceStack;
+    
+    /**
+     * How many pieces are on pieceStack
+     */
+    private int pieceStackSize;
     
     /**
      * The square a pawn is promoting from<br>
@@ -17,25 +93,131 @@ public class ChessBoard extends Board {
     private String promotingFrom = null;
     
     /**
-     * Counts how many times a position repeats<br>
+     * The hash of every position in the current line of play, 
+     * the current position last<br>
      * Controls threefold repetition
      */
-    private HashMap<String, Integer> positions;
+    private long[] history;
+    
+    /**
+     * How many hashes are in history
+     */
+    private int historySize;
+    
+    /**
+     * The legal moves of the player not to move, 
+     * made the first time they are asked for
+     */
+    private MoveList otherMoves;
+    
+    /**
+     * The hash of the position otherMoves were generated in
+     */
+    private long otherMovesHash;
     
     /**
      * Default constructor.
      */
     public ChessBoard() {
         super(8, 8);
-        kingPos = new HashMap<>();
-        allLegalMoves = new HashMap<>();
-        positions = new HashMap<>();
+        history = new long[64];
+        pushPosition();
+        recalculateMoves();
+    }
+    
+    /**
+     * Creates a ChessBoard with a position in Forsyth-Edwards Notation, i.e.
+     * <code>rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1</code>
+     * @param fen the position
+     */
+    public ChessBoard(String fen) {
+        super(8, 8);
+        String[] fields = fen.trim().split("\\s+");
+        if(fields.length < 4) throw new IllegalArgumentException("Invalid FEN: " + fen);
+        String[] ranks = fields[0].split("/");
+        if(ranks.length != 8) throw new IllegalArgumentException("Invalid FEN: " + fen);
+        for(int row = 0; row < 8; row++) {
+            int col = 0;
+            for(char c : ranks[row].toCharArray()) {
+                // a rank must not run past the h file
+                if(c >= '1' && c <= '8' && col + (c - '0') <= 8) {
+                    for(int i = 0; i < c - '0'; i++) {
+                        board[col++][row] = null;
+                    }
+                } else if(col < 8 && "PNBRQKpnbrqk".indexOf(c) != -1) {
+                    board[col++][row] = fromChar(c);
+                } else throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+            if(col != 8) throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        if(!fields[1].equals("w") && !fields[1].equals("b")) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        playerIsWhite = fields[1].equals("w");
+        castlingRights = 0;
+        for(char c : fields[2].toCharArray()) {
+            switch(c) {
+                case 'K': castlingRights |= WHITE_KINGSIDE; break;
+                case 'Q': castlingRights |= WHITE_QUEENSIDE; break;
+                case 'k': castlingRights |= BLACK_KINGSIDE; break;
+                case 'q': castlingRights |= BLACK_QUEENSIDE; break;
+            }
+        }
+        enPassant = fields[3].equals("-") ? -1 : toIndex(fields[3]);
+        halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+        movesValid = false;
+        syncBitboards();
+        resetKingPos(true);
+        resetKingPos(false);
+        hash = computeHash();
+        countPieces();
+        history = new long[64];
+        pushPosition();
         recalculateMoves();
     }
+    
+    /**
+     * Creates a piece from its letter in Forsyth-Edwards Notation
+     * @param c the letter, upper case for white
+     * @return a new piece
+     */
+    private static AbstractChessPiece fromChar(char c) {
+        boolean isWhite = Character.isUpperCase(c);
+        switch(Character.toUpperCase(c)) {
+            case 'P': return new Pawn(isWhite);
+            case 'N': return new Knight(isWhite);
+            case 'B': return new Bishop(isWhite);
+            case 'R': return new Rook(isWhite);
+            case 'Q': return new Queen(isWhite);
+            case 'K': return new King(isWhite);
+            default: throw new IllegalArgumentException("Invalid piece: " + c);
+        }
+    }
+    
+    /**
+     * A private constructor that copies an existing ChessBoard
+     * @param cb the ChessBoard to copy
+     */
+    private ChessBoard(ChessBoard cb) {
+        super(cb);
+        pieces = cb.pieces.clone();
+        sides = cb.sides.clone();
+        occupied = cb.occupied;
+        kingSquare = cb.kingSquare.clone();
+        castlingRights = cb.castlingRights;
+        enPassant = cb.enPassant;
+        halfmoveClock = cb.halfmoveClock;
+        pieceStack = new AbstractPiece[cb.pieceStack.length];
+        // no position before the last capture or pawn move can occur again
+        int kept = Math.min(cb.historySize, cb.halfmoveClock + 1);
+        history = Arrays.copyOfRange(cb.history, cb.historySize - kept, 
+                cb.historySize - kept + Math.max(kept * 2, 16));
+        historySize = kept;
+    }
 
     @Override
     public Board deepCopy() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return new ChessBoard(this);
     }
 
     @Override
@@ -63,23 +245,672 @@ public class ChessBoard extends Board {
         board[6][7] = new Knight(true);
         board[7][7] = new Rook(true);
         
-        kingPos.put(true, "e1");
-        kingPos.put(false, "e8");
+        kingSquare = new int[] {toIndex("e1"), toIndex("e8")};
+        castlingRights = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+        enPassant = -1;
+        halfmoveClock = 0;
+        pieceStack = new AbstractPiece[64];
+        pieceStackSize = 0;
+        syncBitboards();
+    }
+    
+    /**
+     * Rebuilds the bitboards from the pieces on the board
+     */
+    private void syncBitboards() {
+        if(pieces == null) {
+            pieces = new long[12];
+            sides = new long[2];
+        }
+        Arrays.fill(pieces, 0);
+        Arrays.fill(sides, 0);
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = getPiece(index);
+            if(piece == null) continue;
+            pieces[pieceCode(piece)] |= 1L << index;
+            sides[piece.isWhite ? 0 : 1] |= 1L << index;
+        }
+        occupied = sides[0] | sides[1];
+    }
+    
+    @Override
+    protected void setPiece(int index, AbstractPiece piece) {
+        long bit = 1L << index;
+        AbstractPiece old = getPiece(index);
+        if(old != null) {
+            pieces[pieceCode(old)] &= ~bit;
+            sides[old.isWhite ? 0 : 1] &= ~bit;
+        }
+        if(piece != null) {
+            pieces[pieceCode(piece)] |= bit;
+            sides[piece.isWhite ? 0 : 1] |= bit;
+        }
+        occupied = sides[0] | sides[1];
+        super.setPiece(index, piece);
+    }
+    
+    @Override
+    public void recalculateMoves() {
+        if(movesValid) return;
+        allLegalMoves.clear();
+        generateMoves(playerIsWhite, allLegalMoves);
+        movesValid = true;
+    }
+    
+    /**
+     * Generates the legal moves of one side from the bitboards.<br>
+     * The pieces giving check, the pinned pieces and the squares the enemy 
+     * attacks are found once, so that every move is legal as it is generated: 
+     * in check, only moves that capture the checker or block it are made; 
+     * a pinned piece only moves along its pin; the king only moves to 
+     * squares that are not attacked. En passant captures are the only moves 
+     * tried out on the board, since they can uncover an attack along a row.
+     * @param isWhite which side
+     * @param output where to add the moves
+     */
+    private void generateMoves(boolean isWhite, MoveList output) {
+        int us = isWhite ? 0 : 1, king = kingSquare[us];
+        long enemy = sides[us ^ 1], notOwn = ~sides[us];
+        // the king doesn't block attacks on the squares behind it
+        long attacked = attackMap(!isWhite, occupied & ~(1L << king));
+        addMoves(output, king, Bitboards.kingAttacks(king) & notOwn & ~attacked, enemy);
+        
+        long checkers = getAttackers(king, !isWhite);
+        // in double check, only the king can move
+        if((checkers & (checkers - 1)) != 0) return;
+        long allowed = notOwn;
+        if(checkers != 0) {
+            allowed = checkers | Bitboards.between(king, Long.numberOfTrailingZeros(checkers));
+        } else addCastling(output, isWhite, king, attacked);
+        long pinned = pinnedPieces(isWhite, king);
+        
+        // a pinned knight can never move
+        for(long bb = pieces[KNIGHT * 2 + us] & ~pinned; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            addMoves(output, from, Bitboards.knightAttacks(from) & allowed, enemy);
+        }
+        for(long bb = pieces[BISHOP * 2 + us] | pieces[QUEEN * 2 + us]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            long targets = Bitboards.bishopAttacks(from, occupied) & allowed;
+            if((pinned & (1L << from)) != 0) targets &= Bitboards.line(king, from);
+            addMoves(output, from, targets, enemy);
+        }
+        for(long bb = pieces[ROOK * 2 + us] | pieces[QUEEN * 2 + us]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            long targets = Bitboards.rookAttacks(from, occupied) & allowed;
+            if((pinned & (1L << from)) != 0) targets &= Bitboards.line(king, from);
+            addMoves(output, from, targets, enemy);
+        }
+        addPawnMoves(output, isWhite, king, enemy, allowed, pinned);
+    }
+    
+    /**
+     * Finds the pieces of a side that are pinned to their king
+     * @param isWhite which side
+     * @param king the index of the square the king is on
+     * @return the squares of the pinned pieces
+     */
+    private long pinnedPieces(boolean isWhite, int king) {
+        int them = isWhite ? 1 : 0;
+        long queens = pieces[QUEEN * 2 + them];
+        long snipers = (Bitboards.rookAttacks(king, 0) & (pieces[ROOK * 2 + them] | queens))
+                | (Bitboards.bishopAttacks(king, 0) & (pieces[BISHOP * 2 + them] | queens));
+        long output = 0;
+        for(; snipers != 0; snipers &= snipers - 1) {
+            long blockers = Bitboards.between(king, Long.numberOfTrailingZeros(snipers)) & occupied;
+            // pinned if the only piece in the way is one of ours
+            if(blockers != 0 && (blockers & (blockers - 1)) == 0 
+                    && (blockers & sides[isWhite ? 0 : 1]) != 0) {
+                output |= blockers;
+            }
+        }
+        return output;
+    }
+    
+    /**
+     * Adds a move to every target square
+     * @param output where to add the moves
+     * @param fromWhere the index of the square the piece moves from
+     * @param targets the squares the piece may move to
+     * @param enemy the squares of the opponent's pieces
+     */
+    private static void addMoves(MoveList output, int fromWhere, long targets, long enemy) {
+        for(; targets != 0; targets &= targets - 1) {
+            int toWhere = Long.numberOfTrailingZeros(targets);
+            output.add(Move.create(fromWhere, toWhere, 
+                    (enemy & (1L << toWhere)) != 0 ? Move.CAPTURE : 0));
+        }
+    }
+    
+    /**
+     * Adds the castling moves of a side that is not in check
+     * @param output where to add the moves
+     * @param isWhite which side
+     * @param king the index of the square the king is on
+     * @param attacked the squares the opponent attacks
+     */
+    private void addCastling(MoveList output, boolean isWhite, int king, long attacked) {
+        // a castling right means the king and rook have not moved
+        if(canCastle(isWhite, true)
+                && (occupied & ((1L << (king + 1)) | (1L << (king + 2)))) == 0
+                && (attacked & ((1L << (king + 1)) | (1L << (king + 2)))) == 0) {
+            output.add(Move.create(king, king + 2, Move.CASTLE));
+        }
+        if(canCastle(isWhite, false)
+                && (occupied & ((1L << (king - 1)) | (1L << (king - 2)) | (1L << (king - 3)))) == 0
+                && (attacked & ((1L << (king - 1)) | (1L << (king - 2)))) == 0) {
+            output.add(Move.create(king, king - 2, Move.CASTLE));
+        }
+    }
+    
+    /**
+     * Adds the legal pawn moves of a side
+     * @param output where to add the moves
+     * @param isWhite which side
+     * @param king the index of the square the king is on
+     * @param enemy the squares of the opponent's pieces
+     * @param allowed the squares a piece other than the king may move to
+     * @param pinned the squares of the pinned pieces
+     */
+    private void addPawnMoves(MoveList output, boolean isWhite, int king, 
+            long enemy, long allowed, long pinned) {
+        int forward = isWhite ? -8 : 8, startRow = isWhite ? 6 : 1;
+        for(long bb = pieces[PAWN * 2 + (isWhite ? 0 : 1)]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb), to = from + forward;
+            long legal = allowed;
+            if((pinned & (1L << from)) != 0) legal &= Bitboards.line(king, from);
+            if((occupied & (1L << to)) == 0) {
+                if((legal & (1L << to)) != 0) addPawnMove(output, from, to, 0);
+                if(indexRow(from) == startRow && (occupied & (1L << (to + forward))) == 0
+                        && (legal & (1L << (to + forward))) != 0) {
+                    output.add(Move.create(from, to + forward, Move.DOUBLE_PUSH));
+                }
+            }
+            long attacks = Bitboards.pawnAttacks(isWhite, from);
+            for(long captures = attacks & enemy & legal; captures != 0; captures &= captures - 1) {
+                addPawnMove(output, from, Long.numberOfTrailingZeros(captures), Move.CAPTURE);
+            }
+            if(isWhite == playerIsWhite && enPassant != -1 && (attacks & (1L << enPassant)) != 0) {
+                int move = Move.create(from, enPassant, Move.CAPTURE | Move.EN_PASSANT);
+                doMove(move);
+                if(!inCheck(isWhite)) output.add(move);
+                undoMove();
+            }
+        }
+    }
+    
+    /**
+     * Adds a pawn move, or all four promotions if it reaches the last row
+     * @param output where to add the moves
+     * @param fromWhere the index of the square the pawn moves from
+     * @param toWhere the index of the square the pawn moves to
+     * @param flags the flags of the move
+     */
+    private static void addPawnMove(MoveList output, int fromWhere, int toWhere, int flags) {
+        int row = indexRow(toWhere);
+        if(row == 0 || row == 7) {
+            // queen first, so pieceFromTo promotes to a queen
+            for(int promotion = QUEEN; promotion >= KNIGHT; promotion--) {
+                output.add(Move.create(fromWhere, toWhere, flags, promotion));
+            }
+        } else output.add(Move.create(fromWhere, toWhere, flags));
+    }
+    
+    /**
+     * Finds the legal moves of the piece on a square, for either side
+     * @param fromWhere the index of the square of the piece
+     * @param targets where to write the indices of the squares the piece can move to
+     * @return how many squares were written to targets
+     */
+    public int legalTargets(int fromWhere, int[] targets) {
+        AbstractPiece piece = getPiece(fromWhere);
+        if(piece == null) return 0;
+        MoveList moves;
+        if(piece.isWhite == playerIsWhite) {
+            // already generated, unless a piece has moved since
+            recalculateMoves();
+            moves = allLegalMoves;
+        } else {
+            if(otherMoves == null || otherMovesHash != hash) {
+                if(otherMoves == null) otherMoves = new MoveList();
+                else otherMoves.clear();
+                generateMoves(piece.isWhite, otherMoves);
+                otherMovesHash = hash;
+            }
+            moves = otherMoves;
+        }
+        return filterTargets(moves, fromWhere, targets);
+    }
+    
+    /**
+     * Finds the squares the moves from one square go to
+     * @param moves the moves of a side
+     * @param fromWhere the index of the square the moves start from
+     * @param targets where to write the indices of the squares
+     * @return how many squares were written to targets
+     */
+    private static int filterTargets(MoveList moves, int fromWhere, int[] targets) {
+        int numTargets = 0;
+        for(int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            // promotions to different pieces share a square
+            if(Move.getFrom(move) == fromWhere 
+                    && (numTargets == 0 || targets[numTargets - 1] != Move.getTo(move))) {
+                targets[numTargets++] = Move.getTo(move);
+            }
+        }
+        return numTargets;
     }
 
     @Override
     public void pieceFromTo(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        int fromWhere = toIndex(fromWhereX, fromWhereY), toWhere = toIndex(toWhereX, toWhereY);
+        recalculateMoves();
+        for(int i = 0; i < allLegalMoves.size(); i++) {
+            int move = allLegalMoves.get(i);
+            if(Move.getFrom(move) == fromWhere && Move.getTo(move) == toWhere) {
+                doMove(move);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void movePiece(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
+        super.movePiece(fromWhereX, fromWhereY, toWhereX, toWhereY);
+        pushPosition();
+    }
+
+    @Override
+    public void makeMove(int move) {
+        doMove(move);
+        switchPlayer();
+        pushPosition();
+    }
+    
+    /**
+     * Adds the current position to the history
+     */
+    private void pushPosition() {
+        if(historySize == history.length) {
+            history = Arrays.copyOf(history, historySize * 2);
+        }
+        history[historySize++] = hash;
+    }
+    
+    /**
+     * Determines whether the current position has occurred three times<br>
+     * Only positions with the same player to move, since the last capture
+     * or pawn move, can be the same, so only every other one of those is checked.
+     * @return whether the current position has occurred three times
+     */
+    public boolean isThreefoldRepetition() {
+        int count = 1, oldest = Math.max(0, historySize - 1 - halfmoveClock);
+        for(int i = historySize - 3; i >= oldest; i -= 2) {
+            if(history[i] == hash && ++count == 3) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Moves a piece, handling captures, castling, en passant and promotion,
+     * and pushes the undo record.<br>
+     * The record is a single long:<br>
+     * <code>bits 0-31&nbsp;: the move<br>
+     * bits 32-35: castlingRights before the move<br>
+     * bits 36-42: enPassant + 1 before the move<br>
+     * bits 43-52: halfmoveClock before the move<br>
+     * bit 53&nbsp;&nbsp;&nbsp;: whether white was to move</code><br>
+     * The piece moved and the piece captured go onto pieceStack.
+     * @param move a packed move (see {@link Move})
+     */
+    private void doMove(int move) {
+        int fromWhere = Move.getFrom(move), toWhere = Move.getTo(move);
+        int capturedSquare = capturedSquare(move);
+        AbstractPiece moving = getPiece(fromWhere), captured = getPiece(capturedSquare);
+        long record = (move & 0xFFFFFFFFL) 
+                | ((long) castlingRights << 32) 
+                | ((long) (enPassant + 1) << 36) 
+                | ((long) Math.min(halfmoveClock, 1023) << 43);
+        if(playerIsWhite) record |= 1L << 53;
+        pushUndo(record);
+        if(pieceStackSize + 2 > pieceStack.length) {
+            pieceStack = Arrays.copyOf(pieceStack, pieceStack.length * 2);
+        }
+        pieceStack[pieceStackSize++] = moving;
+        pieceStack[pieceStackSize++] = captured;
+        
+        setPiece(capturedSquare, null);
+        setPiece(fromWhere, null);
+        setPiece(toWhere, Move.isPromotion(move) ? promote(Move.getPromotion(move), moving.isWhite) : moving);
+        if(Move.hasFlag(move, Move.CASTLE)) {
+            int rookFrom = castlingRookFrom(toWhere), rookTo = castlingRookTo(toWhere);
+            setPiece(rookTo, getPiece(rookFrom));
+            setPiece(rookFrom, null);
+        }
+        if(moving instanceof King) {
+            kingSquare[moving.isWhite ? 0 : 1] = toWhere;
+        }
+        hash ^= stateHash();
+        castlingRights &= ~(CASTLING_LOST[fromWhere] | CASTLING_LOST[toWhere]);
+        enPassant = Move.hasFlag(move, Move.DOUBLE_PUSH) ? (fromWhere + toWhere) / 2 : -1;
+        hash ^= stateHash();
+        if(moving instanceof Pawn || captured != null) {
+            halfmoveClock = 0;
+        } else halfmoveClock++;
+    }
+
+    /**
+     * Creates the piece a pawn promotes to
+     * @param promotion which kind of piece, or 0 for a queen
+     * @param isWhite whether the pawn is white
+     * @return a new piece
+     */
+    private static AbstractPiece promote(int promotion, boolean isWhite) {
+        switch(promotion) {
+            case KNIGHT: return new Knight(isWhite);
+            case BISHOP: return new Bishop(isWhite);
+            case ROOK: return new Rook(isWhite);
+            default: return new Queen(isWhite);
+        }
+    }
+
+    @Override
+    public void unmakeMove() {
+        historySize--;
+        undoMove();
+    }
+    
+    /**
+     * Takes back the last move made by doMove
+     */
+    private void undoMove() {
+        long record = popUndo();
+        int move = (int) record;
+        int fromWhere = Move.getFrom(move), toWhere = Move.getTo(move);
+        AbstractPiece captured = pieceStack[--pieceStackSize];
+        AbstractPiece moving = pieceStack[--pieceStackSize];
+        pieceStack[pieceStackSize] = pieceStack[pieceStackSize + 1] = null;
+        
+        if(Move.hasFlag(move, Move.CASTLE)) {
+            int rookFrom = castlingRookFrom(toWhere), rookTo = castlingRookTo(toWhere);
+            setPiece(rookFrom, getPiece(rookTo));
+            setPiece(rookTo, null);
+        }
+        setPiece(toWhere, null);
+        setPiece(capturedSquare(move), captured);
+        setPiece(fromWhere, moving);
+        if(moving instanceof King) {
+            kingSquare[moving.isWhite ? 0 : 1] = fromWhere;
+        }
+        hash ^= stateHash();
+        castlingRights = (int) ((record >>> 32) & 0xF);
+        enPassant = (int) ((record >>> 36) & 0x7F) - 1;
+        hash ^= stateHash();
+        halfmoveClock = (int) ((record >>> 43) & 0x3FF);
+        setCurrentPlayer((record & (1L << 53)) != 0);
+    }
+    
+    /**
+     * Returns the part of the hash for the castling rights and en passant square
+     * @return the keys of the castling rights and en passant square, XOR'ed together
+     */
+    private long stateHash() {
+        long output = Zobrist.castling(castlingRights);
+        if(enPassant != -1) output ^= Zobrist.enPassant(enPassant);
+        return output;
+    }
+
+    @Override
+    protected long computeHash() {
+        return super.computeHash() ^ stateHash();
+    }
+
+    @Override
+    protected int pieceCode(AbstractPiece piece) {
+        int type;
+        if(piece instanceof Pawn) type = PAWN;
+        else if(piece instanceof Knight) type = KNIGHT;
+        else if(piece instanceof Bishop) type = BISHOP;
+        else if(piece instanceof Rook) type = ROOK;
+        else if(piece instanceof Queen) type = QUEEN;
+        else type = KING;
+        return type * 2 + (piece.isWhite ? 0 : 1);
+    }
+    
+    /**
+     * Determines which square a move captures on
+     * @param move a packed move
+     * @return the index of the square the captured piece is on 
+     *          (the destination, except for en passant)
+     */
+    private static int capturedSquare(int move) {
+        if(Move.hasFlag(move, Move.EN_PASSANT)) {
+            return toIndex(indexColumn(Move.getTo(move)), indexRow(Move.getFrom(move)));
+        } else return Move.getTo(move);
+    }
+    
+    /**
+     * Determines where the rook starts when castling
+     * @param kingTo the index of the square the king castles to
+     * @return the index of the square the rook starts on
+     */
+    private static int castlingRookFrom(int kingTo) {
+        return toIndex(indexColumn(kingTo) == 6 ? 7 : 0, indexRow(kingTo));
+    }
+    
+    /**
+     * Determines where the rook ends up when castling
+     * @param kingTo the index of the square the king castles to
+     * @return the index of the square the rook moves to
+     */
+    private static int castlingRookTo(int kingTo) {
+        return toIndex(indexColumn(kingTo) == 6 ? 5 : 3, indexRow(kingTo));
+    }
+    
+    /**
+     * Returns the square a pawn can capture onto en passant
+     * @return the en passant square, or null if there is none
+     */
+    public String getEnPassant() {
+        return enPassant == -1 ? null : toSquare(enPassant);
+    }
+    
+    /**
+     * Returns the index of the square a pawn can capture onto en passant
+     * @return the index of the en passant square, or -1 if there is none
+     */
+    public int getEnPassantIndex() {
+        return enPassant;
+    }
+    
+    /**
+     * Determines whether a side may still castle to one side.<br>
+     * This only checks that neither the king nor that rook has moved.
+     * @param isWhite which side
+     * @param kingside whether to check kingside or queenside castling
+     * @return whether that castling right remains
+     */
+    public boolean canCastle(boolean isWhite, boolean kingside) {
+        int right = isWhite 
+                ? (kingside ? WHITE_KINGSIDE : WHITE_QUEENSIDE) 
+                : (kingside ? BLACK_KINGSIDE : BLACK_QUEENSIDE);
+        return (castlingRights & right) != 0;
+    }
+    
+    /**
+     * Determines whether a side's king is in check
+     * @param isWhite which king
+     * @return whether the king is attacked
+     */
+    public boolean inCheck(boolean isWhite) {
+        return isSquareAttacked(kingSquare[isWhite ? 0 : 1], !isWhite);
+    }
+    
+    /**
+     * Determines whether a side attacks a square
+     * @param square the index of the square
+     * @param byWhite which side attacks
+     * @return whether any piece of that side attacks the square
+     */
+    public boolean isSquareAttacked(int square, boolean byWhite) {
+        return getAttackers(square, byWhite) != 0;
+    }
+    
+    /**
+     * Determines whether a side attacks a square
+     * @param square the square
+     * @param byWhite which side attacks
+     * @return whether any piece of that side attacks the square
+     */
+    public boolean isSquareAttacked(String square, boolean byWhite) {
+        return isSquareAttacked(toIndex(square), byWhite);
+    }
+    
+    /**
+     * Finds the pieces of a side that attack a square, by looking from the 
+     * square with each kind of piece for a piece of that kind 
+     * (a knight on the square attacks the knights that attack it, and so on)
+     * @param square the index of the square
+     * @param byWhite which side attacks
+     * @return a bitboard of the squares of the attacking pieces (see {@link Bitboards})
+     */
+    public long getAttackers(int square, boolean byWhite) {
+        int them = byWhite ? 0 : 1;
+        long queens = pieces[QUEEN * 2 + them];
+        return (Bitboards.pawnAttacks(!byWhite, square) & pieces[PAWN * 2 + them])
+                | (Bitboards.knightAttacks(square) & pieces[KNIGHT * 2 + them])
+                | (Bitboards.kingAttacks(square) & pieces[KING * 2 + them])
+                | (Bitboards.bishopAttacks(square, occupied) & (pieces[BISHOP * 2 + them] | queens))
+                | (Bitboards.rookAttacks(square, occupied) & (pieces[ROOK * 2 + them] | queens));
+    }
+    
+    /**
+     * Finds every square a side attacks
+     * @param byWhite which side attacks
+     * @return a bitboard of the attacked squares (see {@link Bitboards})
+     */
+    public long getAttackMap(boolean byWhite) {
+        return attackMap(byWhite, occupied);
+    }
+    
+    /**
+     * Finds every square a side attacks
+     * @param byWhite which side attacks
+     * @param occupied the squares to treat as occupied
+     * @return the attacked squares
+     */
+    private long attackMap(boolean byWhite, long occupied) {
+        int them = byWhite ? 0 : 1;
+        long queens = pieces[QUEEN * 2 + them];
+        long output = Bitboards.pawnAttacks(byWhite, pieces[PAWN * 2 + them]);
+        for(long bb = pieces[KNIGHT * 2 + them]; bb != 0; bb &= bb - 1) {
+            output |= Bitboards.knightAttacks(Long.numberOfTrailingZeros(bb));
+        }
+        for(long bb = pieces[BISHOP * 2 + them] | queens; bb != 0; bb &= bb - 1) {
+            output |= Bitboards.bishopAttacks(Long.numberOfTrailingZeros(bb), occupied);
+        }
+        for(long bb = pieces[ROOK * 2 + them] | queens; bb != 0; bb &= bb - 1) {
+            output |= Bitboards.rookAttacks(Long.numberOfTrailingZeros(bb), occupied);
+        }
+        return output | Bitboards.kingAttacks(kingSquare[them]);
+    }
+    
+    /**
+     * Returns the squares of one kind of piece
+     * @param type which kind of piece, i.e. {@link #PAWN}
+     * @param isWhite which side
+     * @return a bitboard of the squares (see {@link Bitboards})
+     */
+    public long getPieces(int type, boolean isWhite) {
+        return pieces[type * 2 + (isWhite ? 0 : 1)];
+    }
+    
+    /**
+     * Determines how many pieces of one kind a side has
+     * @param type which kind of piece, i.e. {@link #PAWN}
+     * @param isWhite which side
+     * @return how many of them there are
+     */
+    public int getPieceCount(int type, boolean isWhite) {
+        return getPieceCount(type * 2 + (isWhite ? 0 : 1));
+    }
+    
+    /**
+     * Returns the squares of all of one side's pieces
+     * @param isWhite which side
+     * @return a bitboard of the squares (see {@link Bitboards})
+     */
+    public long getPieces(boolean isWhite) {
+        return sides[isWhite ? 0 : 1];
+    }
+    
+    /**
+     * Returns the squares with a piece on them
+     * @return a bitboard of the squares (see {@link Bitboards})
+     */
+    public long getOccupied() {
+        return occupied;
+    }
+    
+    /**
+     * Places a piece on a square, replacing whatever was there
+     * @param piece the piece to place, or null to empty the square
+     * @param square the square
+     */
+    public void placePiece(AbstractPiece piece, String square) {
+        setPiece(toIndex(square), piece);
+        if(piece instanceof King) kingSquare[piece.isWhite ? 0 : 1] = toIndex(square);
+    }
+    
+    /**
+     * Replaces every piece on the board with those of a layout
+     * @param layout the pieces, as in {@link #getBoard()}
+     */
+    public void setBoard(AbstractPiece[][] layout) {
+        for(int i = 0; i < board.length; i++) {
+            System.arraycopy(layout[i], 0, board[i], 0, board[i].length);
+        }
+        syncBitboards();
+        resetKingPos(true);
+        resetKingPos(false);
+        hash = computeHash();
+        countPieces();
+        movesValid = false;
+    }
+    
+    /**
+     * Finds a king again after pieces were placed directly
+     * @param isWhite which king
+     */
+    public void resetKingPos(boolean isWhite) {
+        long king = pieces[KING * 2 + (isWhite ? 0 : 1)];
+        if(king != 0) kingSquare[isWhite ? 0 : 1] = Long.numberOfTrailingZeros(king);
+    }
+    
+    /**
+     * Returns the index of the square a king is on
+     * @param isWhite which king
+     * @return the index of the square the king is on
+     */
+    public int getKingSquare(boolean isWhite) {
+        return kingSquare[isWhite ? 0 : 1];
     }
 
     @Override
     public boolean isFinished() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        if(halfmoveClock >= 100 || isThreefoldRepetition()) return true;
+        recalculateMoves();
+        return allLegalMoves.isEmpty();
     }
 
     @Override
     public int getResult() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        recalculateMoves();
+        // checkmate, otherwise stalemate or a draw by rule
+        if(allLegalMoves.isEmpty() && inCheck(playerIsWhite)) {
+            return playerIsWhite ? -1 : 1;
+        } else return 0;
     }
     
 }
\ No newline at end of file
@@ -19,8 +19,10 @@ public class King extends AbstractChessPiece {
     private boolean moved = false;
     
     /**
-     * Whether this king is in check - used to do castling
+     * Whether this king is in check
+     * @deprecated check is found by ChessBoard, see {@link ChessBoard#inCheck(boolean)}
      */
+    @Deprecated
     private boolean inCheck = false;
 
     public King(boolean isWhite) {
@@ -50,34 +52,21 @@ public class King extends AbstractChessPiece {
         }
         
         // CASTLING
-        if(!moved && !inCheck) {
+        if(!cb.inCheck(isWhite) && (cb.canCastle(isWhite, true) || cb.canCastle(isWhite, false))) {
             // white on 7, black on 0
             int row = (isWhite)?7:0;
             
-            boolean canQ = true, canK = true;
-            for(int i = 0; i < cb.getBoard().length; i++) {
-                for(int j = 0; j < cb.getBoard()[i].length; j++) {
-                    AbstractPiece ap = cb.getPiece(i, j);
-                    if(ap == null) continue;
-                    if((ap.isWhite == isWhite) || (ap.getCharRepresentation().equals("K"))) continue;
-                    String fromWhere = ChessBoard.toSquare(i, j);
-                    if(ap.isAllLegalMove(cb, fromWhere, ChessBoard.toSquare(1, row)) || 
-                            ap.isAllLegalMove(cb, fromWhere, ChessBoard.toSquare(2, row)) ||
-                            ap.isAllLegalMove(cb, fromWhere, ChessBoard.toSquare(3, row))) {
-                        canQ = false;
-                    }
-                    if(ap.isAllLegalMove(cb, fromWhere, ChessBoard.toSquare(5, row)) ||
-                            ap.isAllLegalMove(cb, fromWhere, ChessBoard.toSquare(6, row))) {
-                        canK = false;
-                    }
-                }
-            }
+            // the king may not pass through or land on an attacked square
+            boolean canQ = !cb.isSquareAttacked(ChessBoard.toIndex(2, row), !isWhite) 
+                    && !cb.isSquareAttacked(ChessBoard.toIndex(3, row), !isWhite);
+            boolean canK = !cb.isSquareAttacked(ChessBoard.toIndex(5, row), !isWhite) 
+                    && !cb.isSquareAttacked(ChessBoard.toIndex(6, row), !isWhite);
             // 1, 2, 3, Queenside
-            if(cb.isEmptySquare(1, row) && cb.isEmptySquare(2, row) && cb.isEmptySquare(3, row) && canQ) {
+            if(cb.canCastle(isWhite, false) && cb.isEmptySquare(1, row) && cb.isEmptySquare(2, row) && cb.isEmptySquare(3, row) && canQ) {
                 output.add(ChessBoard.shiftSquare(currentPosition, -2, 0));
             }
             // 5, 6, Kingside
-            if(cb.isEmptySquare(5, row) && cb.isEmptySquare(6, row) && canK) {
+            if(cb.canCastle(isWhite, true) && cb.isEmptySquare(5, row) && cb.isEmptySquare(6, row) && canK) {
                 output.add(ChessBoard.shiftSquare(currentPosition, 2, 0));
             }
         }
@@ -91,7 +80,9 @@ public class King extends AbstractChessPiece {
     
     /**
      * Notifies this king that it is in check.
+     * @deprecated check is found by ChessBoard, see {@link ChessBoard#inCheck(boolean)}
      */
+    @Deprecated
     public void notifyCheck() {
         inCheck = true;
     }
@@ -206,14 +197,18 @@ public class King extends AbstractChessPiece {
     
     /**
      * Notifies the King that it has moved
+     * @deprecated castling rights are kept by ChessBoard
      */
+    @Deprecated
     public void notifyOfMove() {
         moved = true;
     }
     
     /**
      * Notifies the King that it is no longer in check
+     * @deprecated check is found by ChessBoard, see {@link ChessBoard#inCheck(boolean)}
      */
+    @Deprecated
     public void notifyNoCheck() {
         inCheck = false;
     }
@@ -221,7 +216,9 @@ public class King extends AbstractChessPiece {
     /**
      * Returns whether this King has moved
      * @return whether this King has moved
+     * @deprecated castling rights are kept by ChessBoard, see {@link ChessBoard#canCastle(boolean, boolean)}
      */
+    @Deprecated
     public boolean isMoved() {
         return moved;
     }
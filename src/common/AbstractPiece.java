@@ -67,6 +67,72 @@ public abstract class AbstractPiece {
      */
     public abstract LinkedList<String> legalCaptures(Board b, String currentPosition);
     
+    /**
+     * Determines whether a move is legal<br>
+     * The squares are written to an array the board keeps, 
+     * so nothing is allocated.
+     * @param b the current state of the game
+     * @param fromWhere the index of the current square of the piece
+     * @param toWhere the index of the square the piece would be moved to
+     * @return whether the move would be legal
+     */
+    public boolean isLegalMove(Board b, int fromWhere, int toWhere) {
+        int[] targets = b.targets();
+        int numTargets = legalMoves(b, fromWhere, targets);
+        for(int i = 0; i < numTargets; i++) {
+            if(targets[i] == toWhere) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Finds all of the legal moves this piece could make, as square indices<br>
+     * However, this method does not check for legality
+     * @param b the current state of the game
+     * @param currentPosition the index of the current square of the piece
+     * @param targets where to write the indices of the squares the piece can move to
+     * @return how many squares were written to targets
+     */
+    public int allLegalMoves(Board b, int currentPosition, int[] targets) {
+        return toIndices(allLegalMoves(b, Board.toSquare(currentPosition)), targets);
+    }
+    
+    /**
+     * Finds all of the legal moves this piece could make, as square indices
+     * @param b the current state of the game
+     * @param currentPosition the index of the current square of the piece
+     * @param targets where to write the indices of the squares the piece can move to
+     * @return how many squares were written to targets
+     */
+    public int legalMoves(Board b, int currentPosition, int[] targets) {
+        return toIndices(legalMoves(b, Board.toSquare(currentPosition)), targets);
+    }
+    
+    /**
+     * Finds all of the legal captures this piece could make, as square indices
+     * @param b the current state of the game
+     * @param currentPosition the index of the current square of the piece
+     * @param targets where to write the indices of the squares the piece can capture on
+     * @return how many squares were written to targets
+     */
+    public int legalCaptures(Board b, int currentPosition, int[] targets) {
+        return toIndices(legalCaptures(b, Board.toSquare(currentPosition)), targets);
+    }
+    
+    /**
+     * Turns squares into square indices
+     * @param squares the squares
+     * @param indices where to write the indices
+     * @return how many indices were written
+     */
+    private static int toIndices(LinkedList<String> squares, int[] indices) {
+        int count = 0;
+        for(String square : squares) {
+            indices[count++] = Board.toIndex(square);
+        }
+        return count;
+    }
+    
     /**
      * Returns the character that represents this piece
      * @return the character that represents this piece
@@ -1,7 +1,6 @@
 package common;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * A class that represents any game board.
@@ -24,16 +23,98 @@ public abstract class Board {
     protected boolean playerIsWhite;
     
     /**
-     * A Map of all of the legal moves possible
+     * All of the legal moves possible, as packed moves (see {@link Move})
      */
-    protected HashMap<String, LinkedList<String>> allLegalMoves;
+    protected MoveList allLegalMoves;
+    
+    /**
+     * Where recalculateMoves has a piece write its moves, 
+     * made the first time it is needed and reused after that
+     * (see {@link #targets()})
+     */
+    private int[] targets;
+    
+    /**
+     * Whether allLegalMoves is up to date with the position<br>
+     * Cleared whenever a piece is placed or the player changes, 
+     * so the moves are only generated once per position.
+     */
+    protected boolean movesValid;
+    
+    /**
+     * The Zobrist hash of the current position (see {@link Zobrist})
+     */
+    protected long hash = 0;
+    
+    /**
+     * How many pieces of each kind are on the board, indexed by pieceCode
+     */
+    private int[] pieceCounts = new int[Zobrist.NUM_PIECE_CODES];
+    
+    /**
+     * How many pieces each side has on the board, white's first
+     */
+    private int[] sideCounts = new int[2];
+    
+    /**
+     * The undo records of the moves made with makeMove, most recent last
+     */
+    private long[] undoStack = new long[64];
+    
+    /**
+     * How many longs are on the undo stack
+     */
+    private int undoSize = 0;
+    
+    /**
+     * The number of squares on a board
+     */
+    public static final int NUM_SQUARES = 64;
+    
+    /**
+     * The name of every square, by index
+     */
+    private static final String[] SQUARE_NAMES = new String[NUM_SQUARES];
+    
+    /**
+     * Where every square ends up after a shift of at most 2 columns and rows.<br>
+     * Indexed by <code>index * 25 + (colShift + 2) * 5 + (rowShift + 2)</code>, 
+     * holds -1 for shifts that leave the board.
+     */
+    private static final int[] SHIFTS = new int[NUM_SQUARES * 25];
+    
+    /**
+     * The squares next to every square, including diagonally
+     */
+    private static final int[][] NEIGHBORS = new int[NUM_SQUARES][];
+    
+    static {
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            int col = indexColumn(index), row = indexRow(index);
+            SQUARE_NAMES[index] = "" + (char)('a' + col) + (8 - row);
+            int[] neighbors = new int[8];
+            int numNeighbors = 0;
+            for(int colShift = -2; colShift <= 2; colShift++) {
+                for(int rowShift = -2; rowShift <= 2; rowShift++) {
+                    int shifted = isValidSquare(col + colShift, row + rowShift) 
+                            ? toIndex(col + colShift, row + rowShift) : -1;
+                    SHIFTS[index * 25 + (colShift + 2) * 5 + (rowShift + 2)] = shifted;
+                    if(shifted != -1 && shifted != index 
+                            && Math.abs(colShift) <= 1 && Math.abs(rowShift) <= 1) {
+                        neighbors[numNeighbors++] = shifted;
+                    }
+                }
+            }
+            NEIGHBORS[index] = Arrays.copyOf(neighbors, numNeighbors);
+        }
+    }
     
     /**
      * A private instantiator for basic stuff.
      */
     private Board() {
         playerIsWhite = true;
-        allLegalMoves = new HashMap<>();
+        allLegalMoves = new MoveList();
     }
     
     /**
@@ -47,20 +128,34 @@ public abstract class Board {
         this.columns = columns;
         board = new AbstractPiece[columns][rows];
         boardSetup();
+        hash = computeHash();
+        countPieces();
         recalculateMoves();
     }
     
     /**
-     * Instantiates a Board from an existing Board
+     * Instantiates a Board from an existing Board, without setting up 
+     * or recalculating anything.<br>
+     * The pieces themselves are shared, not copied, and the moves made 
+     * on b cannot be unmade on the copy.
      * @param b the Board to copy
-     * @deprecated can use deepCopy instead
      */
-    @Deprecated
     public Board(Board b) {
-        this(b.rows, b.columns);
-        for(int i = 0; i < b.rows; i++) {
-            System.arraycopy(b.board[i], 0, board[i], 0, b.board[i].length);
+        this();
+        rows = b.rows;
+        columns = b.columns;
+        if(b.board != null) {
+            board = new AbstractPiece[b.board.length][];
+            for(int i = 0; i < b.board.length; i++) {
+                board[i] = b.board[i].clone();
+            }
         }
+        playerIsWhite = b.playerIsWhite;
+        hash = b.hash;
+        System.arraycopy(b.pieceCounts, 0, pieceCounts, 0, pieceCounts.length);
+        System.arraycopy(b.sideCounts, 0, sideCounts, 0, sideCounts.length);
+        allLegalMoves.copyFrom(b.allLegalMoves);
+        movesValid = b.movesValid;
     }
     
     /**
@@ -80,11 +175,109 @@ public abstract class Board {
      * @return the piece on that square, and if none, null
      */
     public AbstractPiece getPiece(String square) {
-        if(isValidSquare(square)) {
-            return board[getColumn(square)][getRow(square)];
+        return getPiece(toIndex(square));
+    }
+    
+    /**
+     * Determines which piece occupies a square
+     * @param index the index of a square
+     * @return the piece on that square, and if none, null
+     */
+    public AbstractPiece getPiece(int index) {
+        if(isValidIndex(index)) {
+            return board[indexColumn(index)][indexRow(index)];
         } else throw new IllegalArgumentException("Invalid square");
     }
     
+    /**
+     * Places a piece on a square, or empties it<br>
+     * All changes to the pieces on the board should go through here.
+     * @param index the index of a square
+     * @param piece the piece to place, or null to empty the square
+     */
+    protected void setPiece(int index, AbstractPiece piece) {
+        AbstractPiece old = board[indexColumn(index)][indexRow(index)];
+        if(old != null) {
+            int code = pieceCode(old);
+            hash ^= Zobrist.piece(code, index);
+            pieceCounts[code]--;
+            sideCounts[old.isWhite ? 0 : 1]--;
+        }
+        if(piece != null) {
+            int code = pieceCode(piece);
+            hash ^= Zobrist.piece(code, index);
+            pieceCounts[code]++;
+            sideCounts[piece.isWhite ? 0 : 1]++;
+        }
+        board[indexColumn(index)][indexRow(index)] = piece;
+        movesValid = false;
+    }
+    
+    /**
+     * Determines which kind of piece a piece is, for hashing and counting
+     * @param piece a piece
+     * @return a number from 0 to {@link Zobrist#NUM_PIECE_CODES} - 1, 
+     *          the same for all pieces of the same kind and side
+     */
+    protected abstract int pieceCode(AbstractPiece piece);
+    
+    /**
+     * Returns the Zobrist hash of the current position<br>
+     * The hash is kept up to date as moves are made and unmade.
+     * @return the hash of the current position
+     */
+    public long getHash() {
+        return hash;
+    }
+    
+    /**
+     * Computes the Zobrist hash of the current position from scratch
+     * @return the hash of the current position
+     */
+    protected long computeHash() {
+        long output = playerIsWhite ? 0 : Zobrist.SIDE;
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = getPiece(index);
+            if(piece != null) output ^= Zobrist.piece(pieceCode(piece), index);
+        }
+        return output;
+    }
+    
+    /**
+     * Counts the pieces on the board from scratch<br>
+     * Only needed when pieces were placed without setPiece.
+     */
+    protected void countPieces() {
+        Arrays.fill(pieceCounts, 0);
+        Arrays.fill(sideCounts, 0);
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = getPiece(index);
+            if(piece == null) continue;
+            pieceCounts[pieceCode(piece)]++;
+            sideCounts[piece.isWhite ? 0 : 1]++;
+        }
+    }
+    
+    /**
+     * Determines how many pieces of one kind are on the board<br>
+     * The counts are kept up to date as moves are made and unmade.
+     * @param pieceCode which kind of piece (see {@link #pieceCode(AbstractPiece)})
+     * @return how many of them there are
+     */
+    public int getPieceCount(int pieceCode) {
+        return pieceCounts[pieceCode];
+    }
+    
+    /**
+     * Determines how many pieces one side has on the board<br>
+     * The counts are kept up to date as moves are made and unmade.
+     * @param isWhite which side
+     * @return how many pieces that side has
+     */
+    public int getPieceCount(boolean isWhite) {
+        return sideCounts[isWhite ? 0 : 1];
+    }
+    
     /**
      * Determines which piece occupies a space represented by ABSOLUTE coordinates<br>
      * i.e. (0, 0) represents the top left corner
@@ -94,7 +287,7 @@ public abstract class Board {
      */
     public AbstractPiece getPiece(int col, int row) {
         if(isValidSquare(col, row)) {
-            return board[col][row];
+            return getPiece(toIndex(col, row));
         } else throw new IllegalArgumentException("Invalid square");
     }
     
@@ -117,6 +310,15 @@ public abstract class Board {
         return getPiece(col, row) == null;
     }
     
+    /**
+     * Determines whether a square is empty
+     * @param index the index of a square
+     * @return whether that square is empty
+     */
+    public boolean isEmptySquare(int index) {
+        return getPiece(index) == null;
+    }
+    
     /**
      * Determines the validity of the square
      * @param s a square
@@ -125,10 +327,8 @@ public abstract class Board {
     public static boolean isValidSquare(String s) {
         if(s == null) return false;
         if(s.length() == 2) {
-            int col = s.charAt(0)-'a', 
-                    row = 8 - Integer.parseInt(s.charAt(1) + "");
-            return Character.isLowerCase(s.charAt(0)) && 
-                    Character.isDigit(s.charAt(1)) && isValidSquare(col, row);
+            char col = s.charAt(0), row = s.charAt(1);
+            return col >= 'a' && col <= 'h' && row >= '1' && row <= '8';
         } else return false;
     }
     
@@ -155,7 +355,7 @@ public abstract class Board {
      */
     public static int getColumn(String s) {
         if(isValidSquare(s)) {
-            return s.charAt(0)-'a';
+            return s.charAt(0) - 'a';
         } else throw new IllegalArgumentException("Invalid square");
     }
     
@@ -178,7 +378,7 @@ public abstract class Board {
      */
     public static int getRow(String s) {
         if(isValidSquare(s)) {
-            return 8 - Integer.parseInt(s.substring(1));
+            return '8' - s.charAt(1);
         } else throw new IllegalArgumentException("Invalid square");
     }
     
@@ -252,7 +452,99 @@ public abstract class Board {
      * @return the square that is represented by the row and column
      */
     public static String toSquare(int column, int row) {
-        return "" + (char)('a' + column) + (8 - row);
+        if(isValidSquare(column, row)) {
+            return SQUARE_NAMES[toIndex(column, row)];
+        } else return "" + (char)('a' + column) + (8 - row);
+    }
+    
+    /**
+     * Determines the square represented by an index
+     * @param index the index of a square
+     * @return the square that is represented by the index
+     */
+    public static String toSquare(int index) {
+        if(isValidIndex(index)) {
+            return SQUARE_NAMES[index];
+        } else throw new IllegalArgumentException("Invalid square");
+    }
+    
+    /**
+     * Determines the index of a square represented by the row and column<br>
+     * <br>
+     * Squares are numbered row by row from the top left, so that<br>
+     * <code>index = row * 8 + column</code><br>
+     * i.e. a8 is 0, h8 is 7 and h1 is 63.
+     * @param column the ABSOLUTE column
+     * @param row the ABSOLUTE row
+     * @return the index of the square
+     */
+    public static int toIndex(int column, int row) {
+        return (row << 3) | column;
+    }
+    
+    /**
+     * Determines the index of a square
+     * @param s a square
+     * @return the index of the square
+     */
+    public static int toIndex(String s) {
+        if(isValidSquare(s)) {
+            return (('8' - s.charAt(1)) << 3) | (s.charAt(0) - 'a');
+        } else throw new IllegalArgumentException("Invalid square");
+    }
+    
+    /**
+     * Determines the validity of a square index
+     * @param index the index of a square
+     * @return whether the index is valid
+     */
+    public static boolean isValidIndex(int index) {
+        return index >= 0 && index < NUM_SQUARES;
+    }
+    
+    /**
+     * Determines which ABSOLUTE column a square index is in
+     * @param index the index of a square
+     * @return the ABSOLUTE column
+     */
+    public static int indexColumn(int index) {
+        return index & 7;
+    }
+    
+    /**
+     * Determines which ABSOLUTE row a square index is in
+     * @param index the index of a square
+     * @return the ABSOLUTE row
+     */
+    public static int indexRow(int index) {
+        return index >>> 3;
+    }
+    
+    /**
+     * Determines where a square is after a shift (a.k.a. moving it left and right, up and down).<br>
+     * Unlike the String version, this does not throw when the shift leaves the board.
+     * @param index the index of the current square
+     * @param colShift how much to shift the columns
+     * @param rowShift how much to shift the rows
+     * @return the index of the shifted square, or -1 if the shift is invalid
+     */
+    public static int shiftIndex(int index, int colShift, int rowShift) {
+        if(!isValidIndex(index)) return -1;
+        if(colShift >= -2 && colShift <= 2 && rowShift >= -2 && rowShift <= 2) {
+            return SHIFTS[index * 25 + (colShift + 2) * 5 + (rowShift + 2)];
+        }
+        int shiftedCol = indexColumn(index) + colShift, shiftedRow = indexRow(index) + rowShift;
+        return isValidSquare(shiftedCol, shiftedRow) ? toIndex(shiftedCol, shiftedRow) : -1;
+    }
+    
+    /**
+     * Returns the squares next to a square, including diagonally.<br>
+     * The returned array is shared and must not be modified.
+     * @param index the index of a square
+     * @return the indices of the neighboring squares
+     */
+    public static int[] neighbors(int index) {
+        return NEIGHBORS[index];
     }
 
     /**
@@ -269,11 +561,20 @@ public abstract class Board {
      * @param toWhere where to move a piece
      */
     public void movePiece(String fromWhere, String toWhere) {
+        movePiece(toIndex(fromWhere), toIndex(toWhere));
+    }
+    
+    /**
+     * Moves a piece from one square index to another
+     * @param fromWhere the index of the square a piece is moved from
+     * @param toWhere the index of the square to move a piece to
+     */
+    public void movePiece(int fromWhere, int toWhere) {
         movePiece(
-                Board.getColumn(fromWhere), 
-                Board.getRow(fromWhere), 
-                Board.getColumn(toWhere), 
-                Board.getRow(toWhere)
+                indexColumn(fromWhere), 
+                indexRow(fromWhere), 
+                indexColumn(toWhere), 
+                indexRow(toWhere)
         );
     }
     
@@ -287,7 +588,7 @@ public abstract class Board {
     public void movePiece(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
         pieceFromTo(fromWhereX, fromWhereY, toWhereX, toWhereY);
         // After move stuff
-        playerIsWhite = !playerIsWhite;
+        switchPlayer();
     }
     
     /**
@@ -319,13 +620,14 @@ public abstract class Board {
      * @param toWhereY to which row to move a piece
      */
     public void maybeMove(int fromWhereX, int fromWhereY, int toWhereX, int toWhereY) {
-        board[toWhereX][toWhereY] = board[fromWhereX][fromWhereY];
-        board[fromWhereX][fromWhereY] = null;
+        int fromWhere = toIndex(fromWhereX, fromWhereY);
+        setPiece(toIndex(toWhereX, toWhereY), getPiece(fromWhere));
+        setPiece(fromWhere, null);
     }
     
     /**
      * Moves a piece according to a move denoted by the number<br>
-     * Searches through allLegalMoves to find it
+     * The number is an index into allLegalMoves. The move can be unmade.
      * @param whichMove which move
      */
     public void movePiece(int whichMove) {
@@ -334,20 +636,44 @@ public abstract class Board {
             throw new IndexOutOfBoundsException(whichMove + " under 0");
         if(whichMove >= numOfLegalMoves())
             throw new IndexOutOfBoundsException(whichMove + " over " + numOfLegalMoves());
-        int copy = whichMove;
-        String from = null, to = null;
-        for(String key : allLegalMoves.keySet()) {
-            if(copy < allLegalMoves.get(key).size()) {
-                from = key;
-                to = allLegalMoves.get(key).get(copy);
-                break;
-            } else {
-                copy -= allLegalMoves.get(key).size();
-            }
+        makeMove(allLegalMoves.get(whichMove));
+    }
+    
+    /**
+     * Makes a move in place, remembering enough to unmake it.<br>
+     * The move is not checked for legality, 
+     * and allLegalMoves is not recalculated.
+     * @param move a packed move (see {@link Move}) from allLegalMoves
+     */
+    public abstract void makeMove(int move);
+    
+    /**
+     * Unmakes the last move made with makeMove, 
+     * restoring the board to exactly how it was.<br>
+     * allLegalMoves is not recalculated.
+     * @throws IllegalStateException if there is no move to unmake
+     */
+    public abstract void unmakeMove();
+    
+    /**
+     * Pushes part of an undo record onto the undo stack
+     * @param record the part of the record
+     */
+    protected void pushUndo(long record) {
+        if(undoSize == undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, undoSize * 2);
         }
-        if(from == null || to == null) 
-            assert false : "Impossible!";
-        movePiece(from, to);
+        undoStack[undoSize++] = record;
+    }
+    
+    /**
+     * Pops part of an undo record off the undo stack
+     * @return the part of the record
+     * @throws IllegalStateException if the undo stack is empty
+     */
+    protected long popUndo() {
+        if(undoSize == 0) throw new IllegalStateException("No move to unmake");
+        return undoStack[--undoSize];
     }
     
     /**
@@ -356,35 +682,59 @@ public abstract class Board {
      * @return a String denoting the move in allLegalMoves
      */
     public String getMove(int whichMove) {
-        int copy = whichMove;
-        String from = null, to = null;
-        for(String key : allLegalMoves.keySet()) {
-            if(copy < allLegalMoves.get(key).size()) {
-                from = key;
-                to = allLegalMoves.get(key).get(copy);
-                break;
-            } else {
-                copy -= allLegalMoves.get(key).size();
-            }
-        }
-        return from + " -> " + to;
+        return Move.toString(allLegalMoves.get(whichMove));
     }
     
     /**
-     * Recalculates all of the moves on a square
+     * Returns the packed move in allLegalMoves
+     * @param whichMove which move
+     * @return the packed move (see {@link Move})
+     */
+    public int getLegalMove(int whichMove) {
+        return allLegalMoves.get(whichMove);
+    }
+    
+    /**
+     * Returns all of the legal moves, as of the last recalculation.<br>
+     * The list is reused by this Board, so it must not be modified 
+     * and is only valid until the next recalculation.
+     * @return all of the legal moves
+     */
+    public MoveList getLegalMoves() {
+        return allLegalMoves;
+    }
+    
+    /**
+     * Recalculates all of the legal moves, unless they are still up to date<br>
+     * The moves are ordered by the square they start from, 
+     * then by the order the piece generates them in.
      */
     public void recalculateMoves() {
-        allLegalMoves = new HashMap<>();
-        for(int i = 0; i < board.length; i++) {
-            for(int j = 0; j < board[i].length; j++) {
-                if(board[i][j] == null) continue;
-                if(board[i][j].isWhite == playerIsWhite) {
-                    String current = Board.toSquare(i, j);
-                    LinkedList<String> moves = board[i][j].legalMoves(this, current);
-                    allLegalMoves.put(current, moves);
-                }
+        if(movesValid) return;
+        allLegalMoves.clear();
+        int[] targets = targets();
+        for(int index = 0; index < NUM_SQUARES; index++) {
+            AbstractPiece piece = getPiece(index);
+            if(piece == null || piece.isWhite != playerIsWhite) continue;
+            int numTargets = piece.legalMoves(this, index, targets);
+            for(int i = 0; i < numTargets; i++) {
+                int flags = isEmptySquare(targets[i]) ? 0 : Move.CAPTURE;
+                allLegalMoves.add(Move.create(index, targets[i], flags));
             }
         }
+        movesValid = true;
+    }
+    
+    /**
+     * Returns an array for a piece to write the squares it can move to, 
+     * made the first time it is needed and reused after that<br>
+     * Shared by recalculateMoves and {@link AbstractPiece#isLegalMove(Board, int, int)}, 
+     * which never runs while the moves are being generated.
+     * @return an array of {@link #NUM_SQUARES} squares
+     */
+    int[] targets() {
+        if(targets == null) targets = new int[NUM_SQUARES];
+        return targets;
     }
     
     /**
@@ -392,11 +742,7 @@ public abstract class Board {
      * @return how many legal moves there are
      */
     public int numOfLegalMoves() {
-        int output = 0;
-        for(LinkedList<String> value : allLegalMoves.values()) {
-            output += value.size();
-        }
-        return output;
+        return allLegalMoves.size();
     }
     
     /**
@@ -431,7 +777,16 @@ public abstract class Board {
      * @param playerIsWhite whether the player would be white
      */
     public void setCurrentPlayer(boolean playerIsWhite) {
-        this.playerIsWhite = playerIsWhite;
+        if(this.playerIsWhite != playerIsWhite) switchPlayer();
+    }
+    
+    /**
+     * Passes the move to the other player
+     */
+    protected void switchPlayer() {
+        playerIsWhite = !playerIsWhite;
+        hash ^= Zobrist.SIDE;
+        movesValid = false;
     }
     
     /**
@@ -0,0 +1,398 @@
+package common;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A MCTS tree stored in flat arrays of primitives, instead of objects.<br>
+ * <br>
+ * Every node is an index into the arrays, and the root is node 0.
+ * The children of a node are stored next to each other, from its first
+ * child on. No node has a board: the tree is searched on one board, which
+ * the moves on the way down are made on and unmade from afterwards.<br>
+ * All of the memory is taken when the tree is made, and a search allocates
+ * nothing, so there is no garbage to collect however long it runs.<br>
+ * Once the tree is full, the least visited nodes are turned back into leaves,
+ * keeping their own statistics, until it is down to
+ * {@value TreeNode#PRUNE_PERCENT}% of its capacity. Their blocks of children
+ * go on free lists by size, and later expansions reuse them.
+ * @see TreeNode
+ * @author Jed Wang
+ */
+public class FlatTree {
+    /**
+     * Very small number for tie breaks.
+     */
+    private static final double EPSILON = TreeNode.EPSILON;
+
+    /**
+     * The largest block of children kept on a free list
+     */
+    private static final int MAX_BLOCK = 256;
+
+    /**
+     * The board searched on, which is left as it was after every iteration
+     */
+    private final Board board;
+
+    /**
+     * The number of total visits of every node
+     */
+    private final int[] visits;
+
+    /**
+     * The value of every node, from the view of the player who moved into it
+     */
+    private final double[] values;
+
+    /**
+     * The first child of every node, or -1 if it has not been expanded
+     */
+    private final int[] firstChild;
+
+    /**
+     * How many children every node has
+     */
+    private final int[] childCount;
+
+    /**
+     * The move that led to every node (see {@link Move})
+     */
+    private final int[] moves;
+
+    /**
+     * How many nodes have ever been used, from the start of the arrays
+     */
+    private int size;
+
+    /**
+     * The first free block of children of every size, or -1 if there is none.<br>
+     * The next free block of the same size is kept in the move of the first 
+     * node of a block.
+     */
+    private final int[] freeBlocks = new int[MAX_BLOCK + 1];
+
+    /**
+     * How many nodes are in free blocks
+     */
+    private int freeNodes;
+
+    /**
+     * Whether an expansion has failed for lack of room since the last pruning
+     */
+    private boolean full;
+
+    /**
+     * The expanded nodes by visits, reused by every pruning
+     */
+    private long[] order;
+
+    /**
+     * The random number generator of the search
+     */
+    private final SplittableRandom random;
+
+    /**
+     * The nodes of the current path, reused by every iteration
+     */
+    private int[] path = new int[64];
+
+    /**
+     * Creates a FlatTree
+     * @param b the position to search, which is not changed
+     * @param capacity the most nodes the tree can hold
+     */
+    public FlatTree(Board b, int capacity) {
+        this(b, capacity, new SplittableRandom());
+    }
+
+    /**
+     * Creates a FlatTree whose search can be repeated
+     * @param b the position to search, which is not changed
+     * @param capacity the most nodes the tree can hold
+     * @param seed the seed of the search's random numbers
+     */
+    public FlatTree(Board b, int capacity, long seed) {
+        this(b, capacity, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates a FlatTree
+     * @param b the position to search, which is not changed
+     * @param capacity the most nodes the tree can hold
+     * @param random the random number generator of the search
+     */
+    private FlatTree(Board b, int capacity, SplittableRandom random) {
+        this.random = random;
+        board = b.deepCopy();
+        visits = new int[capacity];
+        values = new double[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        moves = new int[capacity];
+        firstChild[0] = -1;
+        moves[0] = -1;
+        size = 1;
+        Arrays.fill(freeBlocks, -1);
+    }
+
+    /**
+     * Searches through the Monte Carlo tree.
+     */
+    public void selectAction() {
+        // never while a path is being searched, since the path could be collapsed
+        if(full) prune();
+        int node = 0, depth = 0;
+        path[0] = 0;
+        while(firstChild[node] != -1 && childCount[node] != 0) {
+            node = select(node);
+            board.makeMove(moves[node]);
+            push(++depth, node);
+        }
+        if(firstChild[node] == -1 && expand(node) && childCount[node] != 0) {
+            node = select(node);
+            board.makeMove(moves[node]);
+            push(++depth, node);
+        }
+        double value = TreeNode.rollout(board, random);
+        // the player to move alternates down the path
+        boolean whiteToMove = board.currentPlayer();
+        for(int i = depth; i >= 0; i--) {
+            node = path[i];
+            visits[node]++;
+            values[node] += whiteToMove ? -value : value;
+            whiteToMove = !whiteToMove;
+            if(i > 0) board.unmakeMove();
+        }
+    }
+
+    /**
+     * Puts a node on the path
+     * @param depth where on the path
+     * @param node the node
+     */
+    private void push(int depth, int node) {
+        if(depth == path.length) path = Arrays.copyOf(path, depth * 2);
+        path[depth] = node;
+    }
+
+    /**
+     * Gives a node a child for every legal move of the board,
+     * which must be at the node
+     * @param node the node
+     * @return whether there was room for the children
+     */
+    private boolean expand(int node) {
+        int count = 0;
+        if(!board.isFinished()) {
+            board.recalculateMoves();
+            count = board.numOfLegalMoves();
+        }
+        int block = allocate(count);
+        if(block == -1) {
+            full = true;
+            return false;
+        }
+        firstChild[node] = block;
+        childCount[node] = count;
+        for(int i = 0; i < count; i++) {
+            int child = block + i;
+            visits[child] = 0;
+            values[child] = 0;
+            firstChild[child] = -1;
+            childCount[child] = 0;
+            moves[child] = board.getLegalMove(i);
+        }
+        return true;
+    }
+
+    /**
+     * Finds room for a block of children: a free block of the same size,
+     * then unused room at the end of the arrays, then the start of a larger free block
+     * @param count how many children
+     * @return the index of the first child, or -1 if there is no room
+     */
+    private int allocate(int count) {
+        if(count == 0) return 0;
+        if(count <= MAX_BLOCK && freeBlocks[count] != -1) {
+            freeNodes -= count;
+            return popFree(count);
+        }
+        if(size + count <= visits.length) {
+            size += count;
+            return size - count;
+        }
+        for(int larger = count + 1; larger <= MAX_BLOCK; larger++) {
+            if(freeBlocks[larger] != -1) {
+                int block = popFree(larger);
+                freeNodes -= larger;
+                free(block + count, larger - count);
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the first free block of a size off its free list
+     * @param count the size of the block
+     * @return the index of the first node of the block
+     */
+    private int popFree(int count) {
+        int block = freeBlocks[count];
+        freeBlocks[count] = moves[block];
+        return block;
+    }
+
+    /**
+     * Puts a block of nodes on its free list
+     * @param block the index of the first node of the block
+     * @param count how many nodes are in the block
+     */
+    private void free(int block, int count) {
+        // too large a block to keep is lost until the tree is made again
+        if(count > MAX_BLOCK) return;
+        moves[block] = freeBlocks[count];
+        freeBlocks[count] = block;
+        freeNodes += count;
+    }
+
+    /**
+     * Turns the least visited nodes back into leaves, until the tree is 
+     * down to {@value TreeNode#PRUNE_PERCENT}% of its capacity
+     */
+    private void prune() {
+        full = false;
+        int expanded = 0;
+        if(order == null) order = new long[visits.length];
+        for(int node = 1; node < size; node++) {
+            if(firstChild[node] != -1 && childCount[node] != 0) {
+                order[expanded++] = ((long) visits[node] << 32) | node;
+            }
+        }
+        // a node never has more visits than its parent,
+        // so subtrees are collapsed from the bottom up
+        Arrays.sort(order, 0, expanded);
+        long target = (long) visits.length * TreeNode.PRUNE_PERCENT / 100;
+        for(int i = 0; i < expanded && size() > target; i++) {
+            collapse((int) order[i]);
+        }
+    }
+
+    /**
+     * Turns a node back into a leaf, keeping its statistics,
+     * and frees every block of children under it
+     * @param node the node
+     */
+    private void collapse(int node) {
+        int block = firstChild[node], count = childCount[node];
+        if(block == -1) return;
+        firstChild[node] = -1;
+        childCount[node] = 0;
+        if(count == 0) return;
+        for(int child = block; child < block + count; child++) {
+            collapse(child);
+        }
+        free(block, count);
+    }
+
+    /**
+     * Selects the child of a node to search through, by UCT
+     * @param node the node, which must have children
+     * @return the child
+     */
+    private int select(int node) {
+        double logVisits = Math.log(visits[node] + 1), bestValue = Double.NEGATIVE_INFINITY;
+        int selected = -1;
+        for(int child = firstChild[node], end = child + childCount[node]; child < end; child++) {
+            double childVisits = visits[child];
+            double uctValue = values[child] / (childVisits + EPSILON)
+                    + Math.sqrt(logVisits / (childVisits + EPSILON))
+                    + random.nextDouble() * EPSILON;
+            if(uctValue > bestValue) {
+                selected = child;
+                bestValue = uctValue;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the move of the root visited most
+     * @return the packed move (see {@link Move}), or -1 if the root has no children
+     */
+    public int getBestMove() {
+        int best = -1;
+        for(int child = firstChild[0], end = child + childCount[0]; child >= 0 && child < end; child++) {
+            if(best == -1 || visits[child] > visits[best]) best = child;
+        }
+        return best == -1 ? -1 : moves[best];
+    }
+
+    /**
+     * Determines how many children the root has
+     * @return how many children the root has, or 0 if it has not been expanded
+     */
+    public int arity() {
+        return firstChild[0] == -1 ? 0 : childCount[0];
+    }
+
+    /**
+     * Returns the move that leads to one of the root's children
+     * @param index which child, in the order of the board's legal moves
+     * @return the packed move (see {@link Move})
+     */
+    public int getChildMove(int index) {
+        return moves[firstChild[0] + index];
+    }
+
+    /**
+     * Determines how many times one of the root's children has been visited
+     * @param index which child, in the order of the board's legal moves
+     * @return the number of visits
+     */
+    public int getChildVisits(int index) {
+        return visits[firstChild[0] + index];
+    }
+
+    /**
+     * Determines the total value of one of the root's children
+     * @param index which child, in the order of the board's legal moves
+     * @return the total value, from the view of the player to move at the root
+     */
+    public double getChildValue(int index) {
+        return values[firstChild[0] + index];
+    }
+
+    /**
+     * Determines how many times the root has been visited
+     * @return the number of visits
+     */
+    public int getVisits() {
+        return visits[0];
+    }
+
+    /**
+     * Determines how many nodes are in use
+     * @return how many nodes are in use
+     */
+    public int size() {
+        return size - freeNodes;
+    }
+
+    /**
+     * Determines the most nodes the tree can hold
+     * @return the capacity
+     */
+    public int capacity() {
+        return visits.length;
+    }
+
+    /**
+     * Returns the board searched on
+     * @return the board, at the root's position
+     */
+    public Board getBoard() {
+        return board;
+    }
+}
@@ -1,6 +1,6 @@
 package common;
 
-import checkers.CheckerBoard;
+import checkers.BitCheckerBoard;
 
 /**
  * The Main class
@@ -12,16 +12,18 @@ public class GameAIMain {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        Board cb = new CheckerBoard();
+        Board cb = new BitCheckerBoard();
         TreeNode tn = new TreeNode(cb);
+        SearchController search = new SearchController(tn)
+                .setPlayoutLimit(10000).setTimeLimit(10000);
         double start = System.currentTimeMillis();
-        for (int j = 0; j < 10000; j++) {
-            System.out.println(j);
-            tn.selectAction();
-        }
+        search.search();
         double total = System.currentTimeMillis() - start;
-        System.out.println((total/1000) + " seconds");
-        TreeNode best = tn.select();
+        System.out.println(search.getPlayouts() + " playouts in " + (total/1000) + " seconds");
+        int move = search.getBestMove();
+        System.out.println("Best move: " + Move.toString(move) + " (" 
+                + search.getBestVisits() + " visits, value " + search.getBestValue() + ")");
+        TreeNode best = tn.advance(move);
         best.getBoard().printBoard();
         /*cb = best.getBoard();
         best = tn.bestChild();
@@ -0,0 +1,269 @@
+package common;
+
+/**
+ * Packs a move into a single int, so that moves can be generated
+ * and stored without creating any objects.<br>
+ * <br>
+ * The bits are laid out as such:<br>
+ * <code>bits 0-5&nbsp;&nbsp;: index of the square the piece moves from<br>
+ * bits 6-11&nbsp;: index of the square the piece moves to<br>
+ * bit 12&nbsp;&nbsp;&nbsp;&nbsp;: the move captures<br>
+ * bit 13&nbsp;&nbsp;&nbsp;&nbsp;: the move promotes<br>
+ * bit 14&nbsp;&nbsp;&nbsp;&nbsp;: the move castles<br>
+ * bit 15&nbsp;&nbsp;&nbsp;&nbsp;: the move captures en passant<br>
+ * bit 16&nbsp;&nbsp;&nbsp;&nbsp;: the move pushes a pawn two squares<br>
+ * bits 17-19: which piece the move promotes to, if the game has a choice</code><br>
+ * <br>
+ * A move made of several steps (a chain of jumps in checkers) uses bits 14-31 
+ * for its path instead of the flags above:<br>
+ * <code>bits 14-17: how many steps there are<br>
+ * bits 18-31: the direction of each step, 2 bits each, first step lowest</code><br>
+ * A path of more than {@value #INLINE_PATH_LENGTH} steps does not fit that way. 
+ * Since a path never turns straight back, each step after the first is one of 
+ * only 3 directions, so longer paths are numbered instead: bits 14-17 hold 8 or 
+ * more, and together with bits 18-31 give the path's number among the paths of 
+ * its length (see {@link #addStep(int, int, int)}). Either way the move holds its 
+ * whole path, so the same move is always the same int.<br>
+ * The game decides what each direction means, but opposite directions 
+ * must add up to 3.
+ * @author Jed Wang
+ */
+public final class Move {
+    /**
+     * The flag for a capture
+     */
+    public static final int CAPTURE = 1 << 12;
+
+    /**
+     * The flag for a promotion
+     */
+    public static final int PROMOTION = 1 << 13;
+
+    /**
+     * The flag for castling
+     */
+    public static final int CASTLE = 1 << 14;
+
+    /**
+     * The flag for an en passant capture
+     */
+    public static final int EN_PASSANT = 1 << 15;
+
+    /**
+     * The flag for a pawn moving two squares
+     */
+    public static final int DOUBLE_PUSH = 1 << 16;
+
+    /**
+     * Masks a square index
+     */
+    private static final int SQUARE_MASK = 0x3F;
+    
+    /**
+     * Where the piece a move promotes to is kept
+     */
+    private static final int PROMOTION_SHIFT = 17;
+    
+    /**
+     * The most steps a path can hold, enough for any chain of jumps in checkers:
+     * a piece on the edge can't be jumped, and every landing square of a chain 
+     * is two rows and columns from the last, so every piece a chain jumps 
+     * stands on the same 9 squares
+     */
+    public static final int MAX_PATH_LENGTH = 9;
+
+    /**
+     * The most steps a path can hold 2 bits at a time
+     */
+    private static final int INLINE_PATH_LENGTH = 7;
+
+    /**
+     * How many paths of 8 steps there are: 4 first steps, then 3 ways 
+     * to go on from each step. Numbers from here on are paths of 9 steps.
+     */
+    private static final int PATHS_OF_8 = 4 * 3 * 3 * 3 * 3 * 3 * 3 * 3;
+    
+    /**
+     * Where the number of steps of a path is kept
+     */
+    private static final int PATH_LENGTH_SHIFT = 14;
+    
+    /**
+     * Where the directions of the steps of a path are kept
+     */
+    private static final int PATH_SHIFT = 18;
+
+    /**
+     * No instances.
+     */
+    private Move() {
+    }
+
+    /**
+     * Packs a move
+     * @param fromWhere the index of the square a piece moves from
+     * @param toWhere the index of the square a piece moves to
+     * @param flags any of the flags, OR'ed together
+     * @return the packed move
+     */
+    public static int create(int fromWhere, int toWhere, int flags) {
+        return fromWhere | (toWhere << 6) | flags;
+    }
+
+    /**
+     * Determines which square a move starts from
+     * @param move a packed move
+     * @return the index of the square the piece moves from
+     */
+    public static int getFrom(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    /**
+     * Determines which square a move ends on
+     * @param move a packed move
+     * @return the index of the square the piece moves to
+     */
+    public static int getTo(int move) {
+        return (move >>> 6) & SQUARE_MASK;
+    }
+
+    /**
+     * Determines whether a move captures
+     * @param move a packed move
+     * @return whether the move captures
+     */
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE) != 0;
+    }
+
+    /**
+     * Determines whether a move promotes
+     * @param move a packed move
+     * @return whether the move promotes
+     */
+    public static boolean isPromotion(int move) {
+        return (move & PROMOTION) != 0;
+    }
+
+    /**
+     * Packs a promotion
+     * @param fromWhere the index of the square a piece moves from
+     * @param toWhere the index of the square a piece moves to
+     * @param flags any of the flags, OR'ed together
+     * @param promotion which piece to promote to, from 0 to 7 (the game decides the meaning)
+     * @return the packed move, with the PROMOTION flag
+     */
+    public static int create(int fromWhere, int toWhere, int flags, int promotion) {
+        return create(fromWhere, toWhere, flags | PROMOTION) | (promotion << PROMOTION_SHIFT);
+    }
+
+    /**
+     * Determines which piece a move promotes to
+     * @param move a packed move
+     * @return which piece the move promotes to, 0 if none was given
+     */
+    public static int getPromotion(int move) {
+        return (move >>> PROMOTION_SHIFT) & 7;
+    }
+
+    /**
+     * Adds a step to the path of a move<br>
+     * Paths of up to {@value #INLINE_PATH_LENGTH} steps keep each direction in 
+     * 2 bits. Longer paths are numbered: the first direction is the lowest digit, 
+     * in base 4, and each later step is a digit in base 3, which of the 3 
+     * directions that don't turn back it takes. Paths of 9 steps are numbered 
+     * after all of the paths of 8 steps.
+     * @param move a packed move, with fewer than MAX_PATH_LENGTH steps
+     * @param direction the direction of the step, from 0 to 3
+     * @param toWhere the index of the square the step ends on, which becomes 
+     *          the square the move ends on
+     * @return the packed move with the step added
+     * @throws IllegalStateException if the path already has MAX_PATH_LENGTH steps
+     * @throws IllegalArgumentException if a path too long for 2 bits a step 
+     *          turns straight back
+     */
+    public static int addStep(int move, int direction, int toWhere) {
+        int length = getPathLength(move);
+        if(length == MAX_PATH_LENGTH) throw new IllegalStateException("Path is full");
+        move = (move & ~(SQUARE_MASK << 6)) | (toWhere << 6);
+        if(length < INLINE_PATH_LENGTH) {
+            move += 1 << PATH_LENGTH_SHIFT;
+            return move | (direction << (PATH_SHIFT + 2 * length));
+        }
+        int last = getPathStep(move, 0), number = last, place = 4;
+        for(int i = 1; i <= length; i++) {
+            int next = i < length ? getPathStep(move, i) : direction;
+            if(next == 3 - last) throw new IllegalArgumentException("Path turns back");
+            number += place * (next < 3 - last ? next : next - 1);
+            place *= 3;
+            last = next;
+        }
+        if(length + 1 == MAX_PATH_LENGTH) number += PATHS_OF_8;
+        move &= (1 << PATH_LENGTH_SHIFT) - 1;
+        return move | ((INLINE_PATH_LENGTH + 1 + (number >>> 14)) << PATH_LENGTH_SHIFT) 
+                | ((number & 0x3FFF) << PATH_SHIFT);
+    }
+
+    /**
+     * Determines the number of a path too long for 2 bits a step
+     * @param move a packed move, with more than {@value #INLINE_PATH_LENGTH} steps
+     * @return the number of the path, counting paths of 8 steps first
+     */
+    private static int pathNumber(int move) {
+        return ((((move >>> PATH_LENGTH_SHIFT) & 0xF) - INLINE_PATH_LENGTH - 1) << 14) 
+                | (move >>> PATH_SHIFT);
+    }
+
+    /**
+     * Determines how many steps are in the path of a move
+     * @param move a packed move
+     * @return how many steps there are, 0 if the move has no path
+     */
+    public static int getPathLength(int move) {
+        int length = (move >>> PATH_LENGTH_SHIFT) & 0xF;
+        if(length <= INLINE_PATH_LENGTH) return length;
+        return pathNumber(move) < PATHS_OF_8 ? 8 : 9;
+    }
+
+    /**
+     * Determines the direction of one step of the path of a move
+     * @param move a packed move
+     * @param step which step, from 0 to getPathLength(move) - 1
+     * @return the direction of the step, from 0 to 3
+     */
+    public static int getPathStep(int move, int step) {
+        if(((move >>> PATH_LENGTH_SHIFT) & 0xF) <= INLINE_PATH_LENGTH) {
+            return (move >>> (PATH_SHIFT + 2 * step)) & 3;
+        }
+        int number = pathNumber(move);
+        if(number >= PATHS_OF_8) number -= PATHS_OF_8;
+        int direction = number & 3;
+        number >>>= 2;
+        for(int i = 0; i < step; i++) {
+            int turn = number % 3;
+            number /= 3;
+            direction = turn < 3 - direction ? turn : turn + 1;
+        }
+        return direction;
+    }
+
+    /**
+     * Determines whether a move has a flag
+     * @param move a packed move
+     * @param flag one of the flags
+     * @return whether the move has the flag
+     */
+    public static boolean hasFlag(int move, int flag) {
+        return (move & flag) != 0;
+    }
+
+    /**
+     * Returns a String denoting a move
+     * @param move a packed move
+     * @return a String denoting the move
+     */
+    public static String toString(int move) {
+        return Board.toSquare(getFrom(move)) + " -> " + Board.toSquare(getTo(move));
+    }
+}
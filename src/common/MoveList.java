@@ -0,0 +1,145 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of packed moves (see {@link Move}).<br>
+ * Clearing the list keeps its storage, so a Board can regenerate its
+ * moves without allocating.
+ * @author Jed Wang
+ */
+public class MoveList {
+    /**
+     * The packed moves
+     */
+    private int[] moves;
+
+    /**
+     * How many moves are in the list
+     */
+    private int size;
+
+    /**
+     * Creates a MoveList with room for a typical number of moves
+     */
+    public MoveList() {
+        this(64);
+    }
+
+    /**
+     * Creates a MoveList
+     * @param capacity how many moves to make room for at first
+     */
+    public MoveList(int capacity) {
+        moves = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Adds a move to the end of this list
+     * @param move a packed move
+     */
+    public void add(int move) {
+        if(size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    /**
+     * Returns a move in this list
+     * @param index which move
+     * @return the packed move
+     */
+    public int get(int index) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index + " not in [0, " + size + ")");
+        return moves[index];
+    }
+
+    /**
+     * Replaces a move in this list
+     * @param index which move
+     * @param move the packed move to put there
+     */
+    public void set(int index, int move) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index + " not in [0, " + size + ")");
+        moves[index] = move;
+    }
+
+    /**
+     * Determines where a move is in this list
+     * @param move a packed move
+     * @return the index of the move, or -1 if it is not in this list
+     */
+    public int indexOf(int move) {
+        for(int i = 0; i < size; i++) {
+            if(moves[i] == move) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Determines whether a move is in this list
+     * @param move a packed move
+     * @return whether the move is in this list
+     */
+    public boolean contains(int move) {
+        return indexOf(move) != -1;
+    }
+
+    /**
+     * Determines how many moves are in this list
+     * @return how many moves are in this list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines whether this list is empty
+     * @return whether this list is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all of the moves, keeping the storage
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes the moves past the first few, keeping the storage
+     * @param newSize how many moves to keep
+     */
+    public void truncate(int newSize) {
+        if(newSize < 0 || newSize > size)
+            throw new IndexOutOfBoundsException(newSize + " not in [0, " + size + "]");
+        size = newSize;
+    }
+
+    /**
+     * Makes this list hold the same moves as another
+     * @param other the MoveList to copy
+     */
+    public void copyFrom(MoveList other) {
+        if(moves.length < other.size) {
+            moves = new int[other.moves.length];
+        }
+        System.arraycopy(other.moves, 0, moves, 0, other.size);
+        size = other.size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for(int i = 0; i < size; i++) {
+            if(i > 0) sb.append(", ");
+            sb.append(Move.toString(moves[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
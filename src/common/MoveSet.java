@@ -0,0 +1,118 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * A reusable set of packed moves (see {@link Move}), without boxing.<br>
+ * The moves are kept in an open-addressed hash table. Clearing the set
+ * only starts a new generation of it, so it takes constant time
+ * and keeps the storage.
+ * @author Jed Wang
+ */
+public class MoveSet {
+    /**
+     * The moves, wherever their generation is the current one
+     */
+    private int[] moves;
+
+    /**
+     * The generation every slot was filled in
+     */
+    private int[] generations;
+
+    /**
+     * The current generation
+     */
+    private int generation = 1;
+
+    /**
+     * How many moves are in the set
+     */
+    private int size;
+
+    /**
+     * Creates a MoveSet with room for a typical number of moves
+     */
+    public MoveSet() {
+        moves = new int[256];
+        generations = new int[256];
+    }
+
+    /**
+     * Adds a move to this set
+     * @param move a packed move
+     * @return whether the move was not in this set already
+     */
+    public boolean add(int move) {
+        if(size * 2 >= moves.length) grow();
+        int mask = moves.length - 1;
+        for(int i = slot(move, mask); ; i = (i + 1) & mask) {
+            if(generations[i] != generation) {
+                moves[i] = move;
+                generations[i] = generation;
+                size++;
+                return true;
+            }
+            if(moves[i] == move) return false;
+        }
+    }
+
+    /**
+     * Determines whether a move is in this set
+     * @param move a packed move
+     * @return whether the move is in this set
+     */
+    public boolean contains(int move) {
+        int mask = moves.length - 1;
+        for(int i = slot(move, mask); generations[i] == generation; i = (i + 1) & mask) {
+            if(moves[i] == move) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines how many moves are in this set
+     * @return how many moves are in this set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all of the moves, keeping the storage
+     */
+    public void clear() {
+        size = 0;
+        if(++generation == 0) {
+            // the generations have wrapped around, so forget them all
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Determines where to start looking for a move
+     * @param move a packed move
+     * @param mask one less than the size of the table
+     * @return the first slot to look in
+     */
+    private static int slot(int move, int mask) {
+        // moves differ mostly in their low bits, so mix them up
+        return (move * 0x9E3779B9 >>> 16) & mask;
+    }
+
+    /**
+     * Doubles the size of the table, keeping the moves
+     */
+    private void grow() {
+        int[] oldMoves = moves, oldGenerations = generations;
+        int oldGeneration = generation;
+        moves = new int[oldMoves.length * 2];
+        generations = new int[oldMoves.length * 2];
+        generation = 1;
+        size = 0;
+        for(int i = 0; i < oldMoves.length; i++) {
+            if(oldGenerations[i] == oldGeneration) add(oldMoves[i]);
+        }
+    }
+}
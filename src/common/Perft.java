@@ -0,0 +1,310 @@
+package common;
+
+import checkers.BitCheckerBoard;
+import checkers.CheckerBoard;
+import chess.ChessBoard;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the game tree to a fixed depth ("perft").<br>
+ * <br>
+ * Every legal move is made and unmade, so a wrong count means a bug in
+ * move generation, makeMove or unmakeMove, and the time taken measures
+ * move generation on its own. The last ply is not made: its moves are
+ * only counted, as is usual for perft.<br>
+ * Counts can be split by root move ("divide") to find where two move
+ * generators disagree, the root moves can be searched in parallel with
+ * fork/join, and a table can remember the counts of transposed positions
+ * by their Zobrist hashes.<br>
+ * Game endings such as draws are not checked, only whether there are moves.
+ * @author Jed Wang
+ */
+public class Perft {
+    /**
+     * Mixes the depth into the hash of a position, so a position
+     * has a separate table entry for every depth
+     */
+    private static final long DEPTH_KEY = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The position counted
+     */
+    private final Board board;
+
+    /**
+     * A list of moves for every ply, so none are allocated while counting
+     */
+    private final MoveList[] moves;
+
+    /**
+     * The table of counts, or null if there is none.<br>
+     * Every entry takes two longs: the key XOR the count, then the count.
+     * A torn entry written by two threads at once no longer matches its key,
+     * so the table can be shared without locking.
+     */
+    private final long[] table;
+
+    /**
+     * Selects an entry of the table from a key
+     */
+    private final int mask;
+
+    /**
+     * Creates a Perft
+     * @param board the position to count from, which is changed while counting
+     * @param depth the greatest depth that will be counted
+     * @param table the table of counts, or null for none
+     */
+    private Perft(Board board, int depth, long[] table) {
+        this.board = board;
+        moves = new MoveList[Math.max(depth, 1)];
+        for(int i = 0; i < moves.length; i++) {
+            moves[i] = new MoveList();
+        }
+        this.table = table;
+        mask = table == null ? 0 : table.length / 2 - 1;
+    }
+
+    /**
+     * Creates a table of counts
+     * @param bits the base 2 logarithm of the number of entries, or 0 for none
+     * @return the table, or null if bits is 0
+     */
+    public static long[] newTable(int bits) {
+        if(bits <= 0) return null;
+        if(bits > 29) throw new IllegalArgumentException("Table too large: " + bits + " bits");
+        return new long[2 << bits];
+    }
+
+    /**
+     * Counts the leaf nodes to a depth
+     * @param b the position, which is left as it was
+     * @param depth how many plies to count
+     * @return how many leaf nodes there are
+     */
+    public static long perft(Board b, int depth) {
+        return perft(b, depth, null);
+    }
+
+    /**
+     * Counts the leaf nodes to a depth, remembering counts in a table
+     * @param b the position, which is left as it was
+     * @param depth how many plies to count
+     * @param table a table from {@link #newTable(int)}, or null for none
+     * @return how many leaf nodes there are
+     */
+    public static long perft(Board b, int depth, long[] table) {
+        return new Perft(b, depth, table).count(depth);
+    }
+
+    /**
+     * Counts the leaf nodes to a depth under every root move.<br>
+     * Each root move is counted on its own copy of the position
+     * as a fork/join task, so they are counted in parallel.
+     * @param b the position, which is not changed
+     * @param depth how many plies to count, including the root move
+     * @param table a table from {@link #newTable(int)} shared by every task, or null for none
+     * @param pool the pool to count in
+     * @return every root move (see {@link Move}) and its count, in the board's order
+     */
+    public static Map<Integer, Long> divide(Board b, int depth, long[] table, ForkJoinPool pool) {
+        Map<Integer, Long> output = new LinkedHashMap<>();
+        if(depth <= 0) return output;
+        b.recalculateMoves();
+        MoveList roots = new MoveList();
+        roots.copyFrom(b.getLegalMoves());
+        RootTask[] tasks = new RootTask[roots.size()];
+        for(int i = 0; i < tasks.length; i++) {
+            tasks[i] = new RootTask(b.deepCopy(), roots.get(i), depth - 1, table);
+        }
+        pool.invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                invokeAll(tasks);
+                return null;
+            }
+        });
+        for(int i = 0; i < tasks.length; i++) {
+            output.put(roots.get(i), tasks[i].join());
+        }
+        return output;
+    }
+
+    /**
+     * Counts the leaf nodes to a depth, in parallel across the root moves
+     * @param b the position, which is not changed
+     * @param depth how many plies to count
+     * @param table a table from {@link #newTable(int)} shared by every task, or null for none
+     * @param pool the pool to count in
+     * @return how many leaf nodes there are
+     */
+    public static long parallelPerft(Board b, int depth, long[] table, ForkJoinPool pool) {
+        if(depth <= 1) return perft(b, depth, table);
+        long nodes = 0;
+        for(long count : divide(b, depth, table, pool).values()) {
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes to a depth from this Perft's board
+     * @param depth how many plies to count
+     * @return how many leaf nodes there are
+     */
+    private long count(int depth) {
+        if(depth == 0) return 1;
+        board.recalculateMoves();
+        if(depth == 1) return board.numOfLegalMoves();
+        long key = 0;
+        if(table != null) {
+            key = board.getHash() ^ (depth * DEPTH_KEY);
+            int entry = ((int) key & mask) << 1;
+            long nodes = table[entry + 1];
+            if((table[entry] ^ nodes) == key) return nodes;
+        }
+        MoveList list = moves[depth - 1];
+        list.copyFrom(board.getLegalMoves());
+        long nodes = 0;
+        for(int i = 0; i < list.size(); i++) {
+            board.makeMove(list.get(i));
+            nodes += count(depth - 1);
+            board.unmakeMove();
+        }
+        if(table != null) {
+            int entry = ((int) key & mask) << 1;
+            table[entry] = key ^ nodes;
+            table[entry + 1] = nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes under one root move, on its own copy of the position
+     */
+    private static class RootTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The copy of the root position
+         */
+        private final Board board;
+
+        /**
+         * The root move
+         */
+        private final int move;
+
+        /**
+         * How many plies to count after the root move
+         */
+        private final int depth;
+
+        /**
+         * The shared table of counts, or null for none
+         */
+        private final long[] table;
+
+        /**
+         * Creates a RootTask
+         * @param board the copy of the root position
+         * @param move the root move
+         * @param depth how many plies to count after the root move
+         * @param table the shared table of counts, or null for none
+         */
+        RootTask(Board board, int move, int depth, long[] table) {
+            this.board = board;
+            this.move = move;
+            this.depth = depth;
+            this.table = table;
+        }
+
+        @Override
+        protected Long compute() {
+            board.makeMove(move);
+            return perft(board, depth, table);
+        }
+    }
+
+    /**
+     * Runs perft from the command line.<br>
+     * <code>java common.Perft &lt;chess|checkers|bitcheckers&gt; &lt;depth&gt;
+     * [-fen &lt;FEN&gt;] [-divide] [-hash &lt;bits&gt;] [-threads &lt;n&gt;]</code><br>
+     * Every depth up to the given one is counted and timed, unless dividing.
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: java common.Perft <chess|checkers|bitcheckers> <depth> "
+                    + "[-fen <FEN>] [-divide] [-hash <bits>] [-threads <n>]");
+            return;
+        }
+        int depth = Integer.parseInt(args[1]), hashBits = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fen = null;
+        boolean divide = false;
+        for(int i = 2; i < args.length; i++) {
+            switch(args[i]) {
+                case "-fen":
+                    fen = args[++i];
+                    break;
+                case "-divide":
+                    divide = true;
+                    break;
+                case "-hash":
+                    hashBits = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Board b;
+        switch(args[0]) {
+            case "chess":
+                b = fen == null ? new ChessBoard() : new ChessBoard(fen);
+                break;
+            case "checkers":
+                b = new CheckerBoard();
+                break;
+            case "bitcheckers":
+                b = new BitCheckerBoard();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown game: " + args[0]);
+        }
+        long[] table = newTable(hashBits);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        if(divide) {
+            long start = System.nanoTime(), nodes = 0;
+            for(Map.Entry<Integer, Long> entry : divide(b, depth, table, pool).entrySet()) {
+                System.out.println(Move.toString(entry.getKey()) + ": " + entry.getValue());
+                nodes += entry.getValue();
+            }
+            report(depth, nodes, System.nanoTime() - start);
+        } else {
+            for(int d = 1; d <= depth; d++) {
+                long start = System.nanoTime();
+                long nodes = threads > 1 ? parallelPerft(b, d, table, pool) : perft(b, d, table);
+                report(d, nodes, System.nanoTime() - start);
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Prints a count and how fast it was
+     * @param depth the depth counted
+     * @param nodes how many leaf nodes there were
+     * @param nanos how long counting took, in nanoseconds
+     */
+    private static void report(int depth, long nodes, long nanos) {
+        System.out.printf("depth %2d: %,15d nodes %10.3f s %,15.0f nodes/s%n",
+                depth, nodes, nanos / 1e9, nodes * 1e9 / Math.max(nanos, 1));
+    }
+}
@@ -0,0 +1,214 @@
+package common;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches a position with many independent MCTS trees at once
+ * ("root parallelization").<br>
+ * <br>
+ * Every tree has its own copy of the board and is searched by one
+ * fork/join task with {@link TreeNode#selectAction()}, so the tasks share
+ * nothing while searching, not even a random number generator,
+ * and never wait on each other. Given a seed, every tree's search
+ * can be repeated exactly, however the tasks are scheduled. Afterwards the
+ * statistics of the root's children are summed over every tree, move by move,
+ * and the move visited most in total is chosen.<br>
+ * Since a tree stops once its root is proven, a move proven in one tree can
+ * have fewer visits than the others. So a move proven to win in any tree
+ * is chosen over every other, and one proven to lose in any tree
+ * only if every move is, as {@link SearchController} does.
+ * @author Jed Wang
+ */
+public class RootParallelSearch {
+    /**
+     * The position searched
+     */
+    private final Board board;
+
+    /**
+     * The trees, one per task
+     */
+    private final TreeNode[] trees;
+
+    /**
+     * The legal moves of the position
+     */
+    private final MoveList moves;
+
+    /**
+     * The total visits of every move, over every tree
+     */
+    private final double[] visits;
+
+    /**
+     * The total value of every move, over every tree,
+     * from the view of the player to move
+     */
+    private final double[] values;
+
+    /**
+     * The proven result of every move over every tree (see {@link #getProvenValue(int)})
+     */
+    private final double[] proven;
+
+    /**
+     * Creates a RootParallelSearch
+     * @param b the position to search, which is not changed
+     * @param trees how many trees to search with
+     */
+    public RootParallelSearch(Board b, int trees) {
+        this(b, trees, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Creates a RootParallelSearch whose search can be repeated
+     * @param b the position to search, which is not changed
+     * @param trees how many trees to search with
+     * @param seed the seed every tree's seed is taken from
+     */
+    public RootParallelSearch(Board b, int trees, long seed) {
+        board = b.deepCopy();
+        board.recalculateMoves();
+        moves = new MoveList();
+        moves.copyFrom(board.getLegalMoves());
+        this.trees = new TreeNode[trees];
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for(int i = 0; i < trees; i++) {
+            this.trees[i] = new TreeNode(board.deepCopy());
+            this.trees[i].setSeed(seeds.nextLong());
+        }
+        visits = new double[moves.size()];
+        values = new double[moves.size()];
+        proven = new double[moves.size()];
+        Arrays.fill(proven, Double.NaN);
+    }
+
+    /**
+     * Searches every tree, then merges the statistics of their roots.<br>
+     * Searching again continues every tree where it left off.
+     * A tree stops early once its root is proven.
+     * @param iterations how many iterations to search every tree for
+     * @param pool the pool to search in
+     * @return the best move over every tree (see {@link #getBestMove()}),
+     *          or -1 if there are no legal moves
+     */
+    public int search(int iterations, ForkJoinPool pool) {
+        RecursiveAction[] tasks = new RecursiveAction[trees.length];
+        for(int i = 0; i < trees.length; i++) {
+            TreeNode tree = trees[i];
+            tasks[i] = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    // a proven root would only be visited again
+                    for(int j = 0; j < iterations && !tree.isSolved(); j++) {
+                        tree.selectAction();
+                    }
+                }
+            };
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        merge();
+        return getBestMove();
+    }
+
+    /**
+     * Sums the statistics of the root's children over every tree,
+     * and carries over what any tree proved about them.<br>
+     * A win proven in one tree outranks a loss proven in another,
+     * which outranks a draw.
+     */
+    private void merge() {
+        Arrays.fill(visits, 0);
+        Arrays.fill(values, 0);
+        Arrays.fill(proven, Double.NaN);
+        for(TreeNode tree : trees) {
+            for(int i = 0; i < tree.arity(); i++) {
+                TreeNode child = tree.getChild(i);
+                if(child == null) continue;
+                // every copy generates the same moves, but match them anyway
+                int index = moves.indexOf(tree.getChildMove(i));
+                visits[index] += child.getVisits();
+                values[index] += child.getValue();
+                double result = child.getProvenValue();
+                if(result == 1 || (result == -1 && proven[index] != 1)
+                        || (result == 0 && Double.isNaN(proven[index]))) {
+                    proven[index] = result;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the move visited most over every tree, as of the last search.<br>
+     * A move proven to win in any tree is chosen over any other,
+     * and one proven to lose in any tree only if every move is.
+     * @return the packed move (see {@link Move}), or -1 if there are no legal moves
+     */
+    public int getBestMove() {
+        int best = -1;
+        boolean bestLost = false;
+        for(int i = 0; i < moves.size(); i++) {
+            if(proven[i] == 1) return moves.get(i);
+            boolean lost = proven[i] == -1;
+            if(best == -1 || (bestLost && !lost)
+                    || (lost == bestLost && visits[i] > visits[best])) {
+                best = i;
+                bestLost = lost;
+            }
+        }
+        return best == -1 ? -1 : moves.get(best);
+    }
+
+    /**
+     * Returns the legal moves of the position searched
+     * @return the legal moves
+     */
+    public MoveList getMoves() {
+        return moves;
+    }
+
+    /**
+     * Determines how many times a move was visited over every tree, as of the last search
+     * @param index which move, in the order of {@link #getMoves()}
+     * @return the total visits
+     */
+    public double getVisits(int index) {
+        return visits[index];
+    }
+
+    /**
+     * Determines the total value of a move over every tree, as of the last search
+     * @param index which move, in the order of {@link #getMoves()}
+     * @return the total value, from the view of the player to move
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Determines the proven result of a move over every tree, as of the last search
+     * @param index which move, in the order of {@link #getMoves()}
+     * @return 1 if any tree proved it wins, otherwise -1 if any tree proved it loses,
+     *          0 if any tree proved it draws, or NaN if no tree proved it,
+     *          from the view of the player to move
+     */
+    public double getProvenValue(int index) {
+        return proven[index];
+    }
+
+    /**
+     * Returns the board searched
+     * @return a copy of the position searched
+     */
+    public Board getBoard() {
+        return board;
+    }
+}
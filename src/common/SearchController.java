@@ -0,0 +1,264 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a MCTS search within limits on time, playouts and memory.<br>
+ * <br>
+ * The search is anytime: it can be stopped at any moment with
+ * {@link #stop()}, from any thread, and the best move so far and its
+ * statistics can be read while it runs. The limits are checked before every
+ * iteration, so a search overruns its deadline by at most one iteration.
+ * A search also stops once the root's result is proven,
+ * since no more playouts could change it.
+ * <pre>
+ * SearchController search = new SearchController(root).setTimeLimit(500);
+ * search.search(4);
+ * int move = search.getBestMove();
+ * </pre>
+ * @author Jed Wang
+ */
+public class SearchController {
+    /**
+     * How many iterations apart the memory is checked,
+     * as a mask of the iteration count
+     */
+    private static final long MEMORY_CHECK_MASK = 255;
+
+    /**
+     * The root of the tree searched
+     */
+    private final TreeNode root;
+
+    /**
+     * How long a search may run, in nanoseconds
+     */
+    private long timeLimit = Long.MAX_VALUE;
+
+    /**
+     * How many playouts a search may run
+     */
+    private long playoutLimit = Long.MAX_VALUE;
+
+    /**
+     * How many bytes of the heap may be in use before a search stops
+     */
+    private long memoryLimit = Long.MAX_VALUE;
+
+    /**
+     * When the current search must stop, by {@link System#nanoTime()}
+     */
+    private volatile long deadline;
+
+    /**
+     * How many iterations the current search has started
+     */
+    private final AtomicLong started = new AtomicLong();
+
+    /**
+     * Whether the current search has been told to stop
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates a SearchController with no limits
+     * @param root the root of the tree to search
+     */
+    public SearchController(TreeNode root) {
+        this.root = root;
+    }
+
+    /**
+     * Limits how long a search may run
+     * @param millis the time limit, in milliseconds
+     * @return this SearchController
+     */
+    public SearchController setTimeLimit(long millis) {
+        timeLimit = millis * 1000000L;
+        return this;
+    }
+
+    /**
+     * Limits how many playouts a search may run
+     * @param playouts the playout limit
+     * @return this SearchController
+     */
+    public SearchController setPlayoutLimit(long playouts) {
+        playoutLimit = playouts;
+        return this;
+    }
+
+    /**
+     * Stops a search once the heap in use goes over a size.<br>
+     * The heap in use includes garbage that has not been collected yet,
+     * so this should be well under the maximum heap size.
+     * @param bytes the memory limit, in bytes
+     * @return this SearchController
+     */
+    public SearchController setMemoryLimit(long bytes) {
+        memoryLimit = bytes;
+        return this;
+    }
+
+    /**
+     * Searches on this thread until a limit is reached or the search is stopped
+     */
+    public void search() {
+        start();
+        while(keepSearching()) {
+            root.selectAction();
+        }
+    }
+
+    /**
+     * Searches with many threads sharing the tree, until a limit is reached
+     * or the search is stopped. Returns once every thread has stopped.
+     * @param threads how many threads to search with
+     * @see TreeNode#selectActions(int, java.util.function.BooleanSupplier)
+     */
+    public void search(int threads) {
+        start();
+        root.selectActions(threads, this::keepSearching);
+    }
+
+    /**
+     * Gets ready for a new search
+     */
+    private void start() {
+        stopped = false;
+        started.set(0);
+        long now = System.nanoTime();
+        deadline = timeLimit > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeLimit;
+    }
+
+    /**
+     * Determines whether another iteration may be started, counting it if so
+     * @return whether the search should go on
+     */
+    private boolean keepSearching() {
+        if(stopped) return false;
+        if(root.isSolved()) {
+            stopped = true;
+            return false;
+        }
+        long iteration = started.getAndIncrement();
+        if(iteration >= playoutLimit || System.nanoTime() - deadline >= 0) {
+            stopped = true;
+        } else if((iteration & MEMORY_CHECK_MASK) == 0 && usedMemory() > memoryLimit) {
+            stopped = true;
+        }
+        return !stopped;
+    }
+
+    /**
+     * Determines how much of the heap is in use
+     * @return the bytes in use
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Stops the search cooperatively: every thread finishes
+     * the iteration it is in, then returns.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Determines whether the search has stopped, or was told to
+     * @return whether the search has stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Determines how many iterations the search has started
+     * @return how many iterations were started
+     */
+    public long getPlayouts() {
+        return Math.min(started.get(), playoutLimit);
+    }
+
+    /**
+     * Returns the index of the root's child visited most so far.<br>
+     * A child proven to win is chosen over any other, 
+     * and one proven to lose only if every child visited is.
+     * @return the index of the child, or -1 if none has been visited
+     */
+    private int bestChild() {
+        int best = -1;
+        double bestVisits = 0;
+        boolean bestLost = false;
+        for(int i = 0; i < root.arity(); i++) {
+            TreeNode child = root.getChild(i);
+            if(child == null || child.getVisits() == 0) continue;
+            double proven = child.getProvenValue();
+            if(proven == 1) return i;
+            boolean lost = proven == -1;
+            if(best == -1 || (bestLost && !lost)
+                    || (lost == bestLost && child.getVisits() > bestVisits)) {
+                best = i;
+                bestVisits = child.getVisits();
+                bestLost = lost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the move visited most so far, which can be called while searching
+     * @return the packed move (see {@link Move}), or -1 if none has been visited
+     */
+    public int getBestMove() {
+        int best = bestChild();
+        return best == -1 ? -1 : root.getChildMove(best);
+    }
+
+    /**
+     * Determines how many times the best move so far has been visited
+     * @return the visits, or 0 if no move has been visited
+     */
+    public double getBestVisits() {
+        int best = bestChild();
+        return best == -1 ? 0 : root.getChild(best).getVisits();
+    }
+
+    /**
+     * Determines the average value of the best move so far.<br>
+     * Visits still being simulated are left out, so their virtual losses
+     * don't drag the value down while the search runs. The counts are read
+     * one at a time, so the value is only exact once the search has stopped.
+     * @return the average value, from -1 to 1, from the view of the player
+     *          to move at the root, or 0 if no move has been visited
+     */
+    public double getBestValue() {
+        int best = bestChild();
+        if(best == -1) return 0;
+        TreeNode child = root.getChild(best);
+        int pending = child.getVirtualLosses();
+        double visits = child.getVisits() - pending;
+        if(visits <= 0) return 0;
+        return (child.getValue() + pending * TreeNode.VIRTUAL_LOSS) / visits;
+    }
+
+    /**
+     * Determines whether the root's result has been proven
+     * @return whether the root is proven
+     * @see TreeNode#isSolved()
+     */
+    public boolean isSolved() {
+        return root.isSolved();
+    }
+
+    /**
+     * Returns the root of the tree searched
+     * @return the root
+     */
+    public TreeNode getRoot() {
+        return root;
+    }
+}
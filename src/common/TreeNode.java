@@ -1,66 +1,227 @@
 package common;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
 
 /**
- * A MCTS tree.
+ * A MCTS tree.<br>
+ * <br>
+ * The tree can be searched by one thread with {@link #selectAction()},
+ * or by many threads at once with {@link #selectActions(int, int)}.
+ * The new leaf of every iteration can also be simulated many times at once
+ * with {@link #selectAction(int, ForkJoinPool)}.<br>
+ * A tree made with {@link #TreeNode(Board, boolean)} shares one node between
+ * every way of reaching a position, so its statistics are not split between
+ * copies. Results are backed up along the path actually taken,
+ * and a path never visits the same node twice.
+ * The statistics of every node are updated with compare-and-set,
+ * so threads never lock each other out, and only one thread ever
+ * expands a node. Only pruning a tree over its node budget
+ * (see {@link #setNodeBudget(int)}) stops the other threads while it runs.<br>
+ * With {@link #setRave(double)}, every node also keeps all-moves-as-first
+ * statistics for its moves, which selection leans on while a child has
+ * few visits of its own.<br>
+ * Finished games are proven wins, losses or draws, and the proofs are
+ * carried up the tree minimax-style (see {@link #isSolved()}).
+ * Selection never goes into a child proven lost for the player choosing it,
+ * and stops at a proven node, backing up its known result without
+ * simulating; a search stops once its root is proven.
  * @author Simon Lucas
  * Tweaked by Jed Wang
  * @since 2010
  */
 public class TreeNode {
     /**
-     * A RNG for tie breaks.
+     * Updates {@link #nVisits} atomically
      */
-    static Random r = new Random();
-    
+    private static final AtomicIntegerFieldUpdater<TreeNode> VISITS
+            = AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "nVisits");
+
+    /**
+     * Updates {@link #totValue} atomically
+     */
+    private static final AtomicLongFieldUpdater<TreeNode> VALUE
+            = AtomicLongFieldUpdater.newUpdater(TreeNode.class, "totValue");
+
+    /**
+     * Updates {@link #whiteWinCount} atomically
+     */
+    private static final AtomicIntegerFieldUpdater<TreeNode> WHITE_WINS
+            = AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "whiteWinCount");
+
+    /**
+     * Updates {@link #blackWinCount} atomically
+     */
+    private static final AtomicIntegerFieldUpdater<TreeNode> BLACK_WINS
+            = AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "blackWinCount");
+
+    /**
+     * Updates {@link #virtualLosses} atomically
+     */
+    private static final AtomicIntegerFieldUpdater<TreeNode> VIRTUAL_LOSSES
+            = AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "virtualLosses");
+
+    /**
+     * Updates {@link #expanding} atomically
+     */
+    private static final AtomicIntegerFieldUpdater<TreeNode> EXPANDING
+            = AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "expanding");
+
+    /**
+     * How full the tree is left after pruning, as a percentage of its node budget
+     */
+    public static final int PRUNE_PERCENT = 75;
+
     /**
-     * The avaliable number of moves.
-     * Change later on to not be final
+     * How many losses a thread adds to the nodes it passes through,
+     * until its result is backed up.<br>
+     * This makes the other threads less likely to follow it down the same path.
      */
-    private int nActions;
-    
+    public static final double VIRTUAL_LOSS = 1;
+
+    /**
+     * What is known of a node's result, from the view of the player
+     * who moved into it: nothing yet, or a proven loss, draw or win
+     */
+    private static final int UNPROVEN = 0, PROVEN_LOSS = 1, PROVEN_DRAW = 2, PROVEN_WIN = 3;
+
     /**
      * Very small number for tie breaks.
      */
     public static double EPSILON = 1e-6;
 
-    
+
+    /**
+     * The legal moves of this node's board, one per child
+     */
+    private int[] moves;
+
     /**
-     * This {@code TreeNode}'s children.
+     * This {@code TreeNode}'s children, null until they are first selected.<br>
+     * Only set once the moves have been stored,
+     * so other threads never see them half made.
      */
-    private TreeNode[] children;
-    
+    private volatile AtomicReferenceArray<TreeNode> children;
+
     /**
-     * The number of total visits.
+     * How many iterations played each of this node's moves, by the player
+     * to move here, anywhere after this node, or null without RAVE.<br>
+     * Made with the moves, before the children are set.
      */
-    private double nVisits;
-    
+    private AtomicIntegerArray amafVisits;
+
+    /**
+     * The total value of those iterations for each of this node's moves,
+     * from the view of the player to move here, as the bits of doubles,
+     * or null without RAVE
+     */
+    private AtomicLongArray amafValues;
+
     /**
-     * The value of this {@code TreeNode}.
+     * The proven result of this node, from the view of the player who
+     * moved into it: {@link #UNPROVEN} until it is known.<br>
+     * Once proven it never changes, so it needs no compare-and-set.
      */
-    private double totValue;
-    
+    private volatile int proven = UNPROVEN;
+
+    /**
+     * Whether a thread has claimed the expansion of this node
+     */
+    private volatile int expanding = 0;
+
+    /**
+     * The number of total visits, including the ones still being simulated.
+     */
+    private volatile int nVisits;
+
+    /**
+     * The number of visits still being simulated, 
+     * each counted in the value as a virtual loss.
+     */
+    private volatile int virtualLosses;
+
+    /**
+     * The value of this {@code TreeNode}, from the view of the player
+     * who moved into it, as the bits of a double
+     * (see {@link Double#doubleToRawLongBits(double)}).
+     */
+    private volatile long totValue;
+
     /**
      * This node's state of the game
      */
     private Board b;
-    
+
+    /**
+     * The move that first led to this node (see {@link Move}), or -1 for a root
+     */
+    private final int move;
+
+    /**
+     * What every node of this tree shares
+     */
+    private final Tree tree;
+
     /**
      * The starting player
      */
     private final boolean startingPlayer;
-    
+
     /**
      * The win count
      */
-    private int whiteWinCount = 0, blackWinCount = 0;
+    private volatile int whiteWinCount = 0, blackWinCount = 0;
 
     public TreeNode(Board b) {
+        this(b, false);
+    }
+
+    /**
+     * Creates a root TreeNode
+     * @param b the state of the game to search
+     * @param transpositions whether positions reached by different orders of
+     *          moves should share one node, making the tree a graph
+     */
+    public TreeNode(Board b, boolean transpositions) {
+        this(b, -1, new Tree(transpositions));
+        if(tree.table != null) tree.table.put(b.getHash(), this);
+    }
+
+    /**
+     * Creates a TreeNode, whose moves are not known until it is expanded
+     * @param b this node's state of the game
+     * @param move the move that led to this node, or -1 for a root
+     * @param tree what every node of the tree shares
+     */
+    private TreeNode(Board b, int move, Tree tree) {
         this.b = b;
-        nActions = b.numOfLegalMoves();
+        this.move = move;
+        this.tree = tree;
         startingPlayer = b.currentPlayer();
     }
 
@@ -68,49 +229,513 @@ public class TreeNode {
      * Searches through the Monte Carlo tree.
      */
     public void selectAction() {
-        nActions = b.numOfLegalMoves();
+        selectAction(1, null);
+    }
+
+    /**
+     * Searches through the Monte Carlo tree, simulating the new leaf 
+     * many times and backing up the average of the results
+     * ("leaf parallelization").<br>
+     * This costs one trip down the tree for many simulations,
+     * and the average varies less than a single result.
+     * @param rollouts how many times to simulate the new leaf
+     * @param pool the pool to simulate in, each simulation on its own copy
+     *          of the leaf's board, or null to simulate one after another
+     *          on this thread
+     */
+    public void selectAction(int rollouts, ForkJoinPool pool) {
+        if(tree.overBudget()) prune();
+        Amaf amaf = tree.amaf();
+        if(amaf != null) amaf.played.clear();
         // System.out.println("SELECTING");
-        List<TreeNode> visited = new LinkedList<>();
+        List<TreeNode> visited = new ArrayList<>();
         TreeNode cur = this;
         visited.add(this);
-        while (!cur.isLeaf()) {
-            cur = cur.select();
-            if(cur == null) return;
+        boolean repeated = false;
+        // a proven node's result is known, so there is no need to go under it
+        while (!cur.isLeaf() && cur.proven == UNPROVEN) {
+            int index = cur.selectIndex(tree.random);
+            // every child is proven lost, so this node is proven below
+            if(index == -1) break;
+            TreeNode next = cur.child(index);
+            // with transpositions, a position on the path can come up again,
+            // which would go around in circles
+            if(tree.table != null && visited.contains(next)) {
+                repeated = true;
+                break;
+            }
+            if(amaf != null) amaf.played.add(cur.moves[index]);
+            cur = next;
             // System.out.println("Adding: " + cur);
             visited.add(cur);
         }
-        // System.out.println("EXPANDING");
-        cur.expand();
-        // System.out.println("SELECTING");
-        TreeNode newNode = cur.select();
-        newNode.b.setCurrentPlayer(!cur.b.currentPlayer());
-        visited.add(newNode);
+        TreeNode newNode = cur;
+        if(!repeated && cur.isLeaf() && cur.proven == UNPROVEN) {
+            // System.out.println("EXPANDING");
+            cur.expand();
+            // System.out.println("SELECTING");
+            int index = cur.selectIndex(tree.random);
+            newNode = index == -1 ? null : cur.child(index);
+            // a finished game has no children, and is proven itself
+            if(newNode == null || (tree.table != null && visited.contains(newNode))) {
+                newNode = cur;
+            } else {
+                if(amaf != null) amaf.played.add(cur.moves[index]);
+                visited.add(newNode);
+            }
+        }
         // System.out.println("SIMULATING");
-        double value = simulate(newNode);
+        // the moves of a batch of rollouts are not recorded, only the path's
+        double value;
+        if(newNode.solve()) {
+            value = newNode.provenResult();
+        } else if(rollouts == 1) {
+            value = simulate(newNode, amaf == null ? null : amaf.played);
+        } else value = simulate(newNode, rollouts, pool);
         // System.out.println("UPDATING");
         for(TreeNode node : visited) {
             // would need extra logic for n-player game
             // System.out.println(node.toString());
             node.updateStats(value);
         }
+        solve(visited);
+        if(amaf != null) amaf.update(visited, value);
     }
 
     /**
-     * Creates new {@code TreeNode}s to match all playable branches of the game.
+     * Searches through the Monte Carlo tree with many threads at once,
+     * all sharing this tree.<br>
+     * Every thread plays the moves of its path on its own copy of this
+     * node's board, so no boards in the tree are changed. This should only
+     * be called on a root, and not while another search of the tree is running.
+     * @param iterations how many iterations to search, between all of the threads
+     * @param threads how many threads to search with
+     */
+    public void selectActions(int iterations, int threads) {
+        AtomicInteger started = new AtomicInteger();
+        selectActions(threads, () -> started.getAndIncrement() < iterations);
+    }
+
+    /**
+     * Searches through the Monte Carlo tree with many threads at once,
+     * all sharing this tree, for as long as a condition allows.<br>
+     * Every thread asks the condition before each of its iterations,
+     * and stops once it is false, or once this node is proven.
+     * @param threads how many threads to search with
+     * @param keepSearching whether to start another iteration,
+     *          which must be safe to call from many threads at once
+     * @see #selectActions(int, int)
+     */
+    public void selectActions(int threads, BooleanSupplier keepSearching) {
+        b.recalculateMoves();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for(int i = 0; i < threads; i++) {
+                Board board = b.deepCopy();
+                // split here, so every thread's generator comes from the seed
+                SplittableRandom random = tree.random.split();
+                Amaf amaf = tree.raveEquivalence > 0 ? new Amaf() : null;
+                workers.add(pool.submit(() -> {
+                    List<TreeNode> visited = new ArrayList<>();
+                    while(proven == UNPROVEN && keepSearching.getAsBoolean()) {
+                        selectAction(board, visited, random, amaf);
+                    }
+                }));
+            }
+            for(Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException ex) {
+            throw new IllegalStateException("A search thread failed", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Searches through the Monte Carlo tree once,
+     * alongside any other threads searching it.<br>
+     * Every node on the way down gets a virtual loss, which is taken back
+     * when the result is backed up.
+     * @param board a copy of this node's board, only used by this thread,
+     *          which is left as it was
+     * @param visited a list to keep the path in, only used by this thread
+     * @param random this thread's random number generator
+     * @param amaf this thread's record of the moves played for RAVE, 
+     *          or null without RAVE
+     */
+    private void selectAction(Board board, List<TreeNode> visited, 
+            SplittableRandom random, Amaf amaf) {
+        // pruning waits for every iteration in progress to finish,
+        // and holds off new ones until it is done
+        if(tree.overBudget()) {
+            tree.lock.writeLock().lock();
+            try {
+                // another thread may have pruned while this one waited
+                if(tree.overBudget()) prune();
+            } finally {
+                tree.lock.writeLock().unlock();
+            }
+        }
+        tree.lock.readLock().lock();
+        try {
+            search(board, visited, random, amaf);
+        } finally {
+            tree.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches through the Monte Carlo tree once, while the tree is not
+     * being pruned
+     * @param board a copy of this node's board, only used by this thread,
+     *          which is left as it was
+     * @param visited a list to keep the path in, only used by this thread
+     * @param random this thread's random number generator
+     * @param amaf this thread's record of the moves played for RAVE, 
+     *          or null without RAVE
+     * @see #selectAction(Board, List, SplittableRandom, Amaf)
+     */
+    private void search(Board board, List<TreeNode> visited, 
+            SplittableRandom random, Amaf amaf) {
+        visited.clear();
+        TreeNode cur = this;
+        cur.addVirtualLoss();
+        visited.add(cur);
+        boolean descending = true;
+        while(descending && cur.proven == UNPROVEN) {
+            if(cur.isLeaf()) {
+                // only the thread that claims a leaf expands it;
+                // the others simulate from the leaf itself
+                if(!cur.claimExpansion()) break;
+                cur.expand();
+                if(cur.proven != UNPROVEN) break;
+                descending = false;
+            }
+            int index = cur.selectIndex(random);
+            // every child is proven lost
+            if(index == -1) break;
+            TreeNode next = cur.child(index);
+            if(tree.table != null && visited.contains(next)) break;
+            next.addVirtualLoss();
+            visited.add(next);
+            // a shared node may have first been reached by another move
+            board.makeMove(cur.moves[index]);
+            if(amaf != null) amaf.played.add(cur.moves[index]);
+            cur = next;
+        }
+        double value = cur.solve() ? cur.provenResult()
+                : rollout(board, random, amaf == null ? null : amaf.played);
+        for(int i = visited.size() - 1; i >= 0; i--) {
+            TreeNode node = visited.get(i);
+            node.removeVirtualLoss();
+            node.addResult(value);
+            if(i > 0) board.unmakeMove();
+        }
+        solve(visited);
+        if(amaf != null) amaf.update(visited, value);
+    }
+
+    /**
+     * Claims the expansion of this node for the calling thread
+     * @return whether this thread may expand this node, which is
+     *          only ever true for one thread
+     */
+    private boolean claimExpansion() {
+        return expanding == 0 && EXPANDING.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Carries proofs up a path, from the bottom, for as long as
+     * they prove the node above
+     * @param visited the path, from the root down
+     */
+    private static void solve(List<TreeNode> visited) {
+        for(int i = visited.size() - 1; i >= 0; i--) {
+            if(!visited.get(i).solve()) break;
+        }
+    }
+
+    /**
+     * Tries to prove this node from its children, minimax-style.<br>
+     * The children's results are from the view of the player to move here:
+     * if any of them is a proven win, this node is a proven loss for the 
+     * player who moved into it. If all of them are proven, it is the
+     * opposite of the best of them. A child that has not been made yet
+     * is not proven.
+     * @return whether this node is proven
+     */
+    private boolean solve() {
+        if(proven != UNPROVEN) return true;
+        AtomicReferenceArray<TreeNode> c = children;
+        if(c == null || c.length() == 0) return false;
+        int best = PROVEN_LOSS;
+        for(int i = 0; i < c.length(); i++) {
+            TreeNode child = c.get(i);
+            int result = child == null ? UNPROVEN : child.proven;
+            if(result == PROVEN_WIN) {
+                proven = PROVEN_LOSS;
+                return true;
+            }
+            // keep looking for a win, which proves this node on its own
+            if(result == UNPROVEN) best = UNPROVEN;
+            else if(best != UNPROVEN) best = Math.max(best, result);
+        }
+        if(best == UNPROVEN) return false;
+        proven = best == PROVEN_DRAW ? PROVEN_DRAW : PROVEN_WIN;
+        return true;
+    }
+
+    /**
+     * Determines the proven result of this node
+     * @return the result, from white's view: 1 if white wins, -1 if black wins,
+     *          or 0 for a draw
+     */
+    private double provenResult() {
+        double result = proven - PROVEN_DRAW;
+        return startingPlayer ? -result : result;
+    }
+
+    /**
+     * Matches all playable branches of the game.<br>
+     * Only the moves are stored: a child's {@code TreeNode} and board 
+     * are made the first time it is selected, since most never are.<br>
+     * A finished game has no branches, and its result is proven.
      */
     public void expand() {
         b.recalculateMoves();
-        nActions = b.numOfLegalMoves();
-        // System.out.println("nActions: " + nActions);
-        children = new TreeNode[nActions];
-        // b.printBoard();
-        for (int i=0; i<nActions; i++) {
-            Board temp = b.deepCopy();
-            temp.movePiece(i);
-            temp.recalculateMoves();
-            // temp.printBoard();
-            children[i] = new TreeNode(temp);
+        boolean finished = b.isFinished();
+        int[] newMoves = new int[finished ? 0 : b.numOfLegalMoves()];
+        for (int i=0; i<newMoves.length; i++) {
+            newMoves[i] = b.getLegalMove(i);
         }
+        moves = newMoves;
+        if(tree.raveEquivalence > 0) {
+            amafVisits = new AtomicIntegerArray(moves.length);
+            amafValues = new AtomicLongArray(moves.length);
+        }
+        if(moves.length == 0) {
+            // the player to move with no moves left loses, as in a rollout
+            double result = finished ? b.getResult() : startingPlayer ? -1 : 1;
+            proven = PROVEN_DRAW + (int) (startingPlayer ? -result : result);
+        }
+        children = new AtomicReferenceArray<>(moves.length);
+    }
+
+    /**
+     * Moves the root of the tree to the child of a move that was played,
+     * so the next search keeps what was learned under it.<br>
+     * The returned child is the new root. No other node refers to it,
+     * so once this node is dropped its other children can be garbage collected.
+     * This should not be called while the tree is being searched.
+     * @param move the packed move played (see {@link Move}), by either player
+     * @return the child of the move, holding its statistics and subtree
+     * @throws IllegalArgumentException if the move is not legal here
+     */
+    public TreeNode advance(int move) {
+        if(isLeaf()) expand();
+        for(int i = 0; i < moves.length; i++) {
+            if(moves[i] == move) {
+                TreeNode next = child(i);
+                next.recount();
+                return next;
+            }
+        }
+        throw new IllegalArgumentException("Not a legal move: " + Move.toString(move));
+    }
+
+    /**
+     * Adds this node and every node under it to a set
+     * @param nodes the set, which nodes already in are not gone under again
+     * @return how many nodes were added
+     */
+    private int addSubtree(Set<TreeNode> nodes) {
+        if(!nodes.add(this)) return 0;
+        int added = 1;
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while(!stack.isEmpty()) {
+            AtomicReferenceArray<TreeNode> c = stack.pop().children;
+            for(int i = 0; c != null && i < c.length(); i++) {
+                TreeNode child = c.get(i);
+                if(child != null && nodes.add(child)) {
+                    stack.push(child);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Counts the nodes of the tree again from this root,
+     * forgetting the positions that can no longer be reached
+     */
+    private void recount() {
+        Set<TreeNode> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        tree.nodes.set(addSubtree(reachable));
+        if(tree.table != null) tree.table.values().retainAll(reachable);
+    }
+
+    /**
+     * Seeds the random numbers of the search, so it can be repeated.<br>
+     * A search on one thread makes the same tree every time from the same seed.
+     * Every thread of a search with many threads, and every simulation of 
+     * {@link #simulate(TreeNode, int, ForkJoinPool)} on a pool, gets its
+     * own generator split from this one, so none of them share a generator;
+     * the same seed gives every thread the same random numbers, though
+     * the order threads reach the shared nodes in still varies.
+     * This should be called on the root, between searches.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        tree.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Turns on RAVE (rapid action value estimation), or turns it off.<br>
+     * Every iteration then also counts for each move that the player to move
+     * at a node on its path played anywhere later in it, on the path or in the
+     * rollout, as if it had been played first ("all moves as first").
+     * Selection blends a child's own average with this estimate, weighing the
+     * estimate by sqrt(k / (3n + k)) for a child with n visits: it counts fully
+     * before the child is visited, then fades as the child's own statistics
+     * build up. Unvisited children are chosen between by their estimates,
+     * instead of always coming first.<br>
+     * When the new leaf is simulated many times at once, only the moves of
+     * the path are counted. Nodes expanded before RAVE is turned on
+     * do not keep the statistics.
+     * This should be called on the root, between searches.
+     * @param equivalence k, the visits at which a child's own average and its
+     *          estimate weigh the same, or 0 to turn RAVE off
+     */
+    public void setRave(double equivalence) {
+        tree.raveEquivalence = equivalence;
+    }
+
+    /**
+     * Limits how many nodes the tree may hold.<br>
+     * Once a search makes more, the least visited nodes are turned back
+     * into leaves before the next iteration, keeping their own statistics
+     * but dropping everything under them, until the tree is down to 
+     * {@value #PRUNE_PERCENT}% of the budget. Their children and boards
+     * can then be garbage collected.
+     * This should be called on the root, between searches.
+     * @param nodes the most nodes the tree may hold, including the root
+     */
+    public void setNodeBudget(int nodes) {
+        tree.nodeBudget = nodes;
+        tree.pruneAt = nodes;
+    }
+
+    /**
+     * Determines how many nodes the tree holds
+     * @return how many nodes have been made, including the root
+     */
+    public int getNodeCount() {
+        return tree.nodes.get();
+    }
+
+    /**
+     * Turns the least visited nodes under this root back into leaves,
+     * until the tree is down to {@value #PRUNE_PERCENT}% of its node budget.<br>
+     * With transpositions, a node dropped from under one parent may still be 
+     * reached through another, so the tree is counted again after every pass 
+     * and pruned again if it is still too big. If even that can't bring it down
+     * far enough, the next prune waits until the tree has grown by as much as
+     * it would after a full prune, instead of coming on the next iteration.<br>
+     * Threads searching at the same time wait until it is done, and it waits
+     * for their iterations in progress, so no node is made or counted
+     * while the tree is being pruned and counted again.
+     */
+    private void prune() {
+        long target = (long) tree.nodeBudget * PRUNE_PERCENT / 100;
+        boolean collapsed;
+        do {
+            collapsed = collapseLeastVisited(target);
+            recount();
+        } while(collapsed && tree.nodes.get() > target);
+        long grown = tree.nodes.get() + tree.nodeBudget - target;
+        tree.pruneAt = (int) Math.min(Integer.MAX_VALUE, Math.max(tree.nodeBudget, grown));
+    }
+
+    /**
+     * Turns the least visited nodes under this root back into leaves,
+     * until the nodes left under it, as if none were shared, are down to a target
+     * @param target how many nodes the tree should be left with
+     * @return whether any node was turned back into a leaf
+     */
+    private boolean collapseLeastVisited(long target) {
+        Set<TreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        addSubtree(seen);
+        List<TreeNode> expanded = new ArrayList<>();
+        for(TreeNode node : seen) {
+            if(node != this && node.children != null) expanded.add(node);
+        }
+        // a node never has more visits than its parent, 
+        // so subtrees are collapsed from the bottom up
+        long[] order = new long[expanded.size()];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = ((long) expanded.get(i).nVisits << 32) | i;
+        }
+        Arrays.sort(order);
+        int count = seen.size();
+        boolean collapsed = false;
+        Set<TreeNode> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int i = 0; i < order.length && count > target; i++) {
+            TreeNode node = expanded.get((int) order[i]);
+            // already dropped along with a node just as visited above it
+            if(removed.contains(node)) continue;
+            // everything under it goes, but the node itself stays as a leaf
+            count -= node.addSubtree(removed) - 1;
+            removed.remove(node);
+            node.collapse();
+            collapsed = true;
+        }
+        return collapsed;
+    }
+
+    /**
+     * Turns this node back into a leaf, keeping its statistics
+     */
+    private void collapse() {
+        children = null;
+        expanding = 0;
+    }
+
+    /**
+     * Returns a child, making it if it has not been made yet.<br>
+     * If two threads make the same child at once, 
+     * only one of them is kept, and both threads get it.
+     * A node is counted once, when it can first be reached: when it goes into 
+     * the table of positions, or without one, when it goes into its parent.
+     * @param index which child
+     * @return the child
+     */
+    private TreeNode child(int index) {
+        AtomicReferenceArray<TreeNode> c = children;
+        TreeNode node = c == null ? null : c.get(index);
+        if(node != null) return node;
+        Board temp = b.deepCopy();
+        temp.makeMove(moves[index]);
+        node = new TreeNode(temp, moves[index], tree);
+        if(tree.table != null) {
+            // the same position reached another way is the same node
+            TreeNode shared = tree.table.putIfAbsent(temp.getHash(), node);
+            if(shared != null) {
+                node = shared;
+            } else tree.nodes.incrementAndGet();
+        }
+        // a leaf has nowhere to keep the child
+        if(c == null) return node;
+        if(c.compareAndSet(index, null, node)) {
+            if(tree.table == null) tree.nodes.incrementAndGet();
+            return node;
+        }
+        return c.get(index);
     }
 
     /**
@@ -118,17 +743,51 @@ public class TreeNode {
      * @return a {@code TreeNode}
      */
     public TreeNode select() {
-        TreeNode selected = null;
-        double bestValue = Double.MIN_VALUE;
-        for (TreeNode c : children) {
-            double uctValue =
-                    c.totValue / (c.nVisits + EPSILON) +
-                            Math.sqrt(Math.log(nVisits+1) / (c.nVisits + EPSILON)) +
-                            r.nextDouble() * EPSILON;
+        int selected = selectIndex(tree.random);
+        return selected == -1 ? null : child(selected);
+    }
+
+    /**
+     * Selects which child to start searching from, by UCT
+     * @param r the random number generator to break ties with
+     * @return the index of the child, or -1 if there are no children
+     */
+    private int selectIndex(SplittableRandom r) {
+        int selected = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        // the children's values are from the view of the player to move here
+        double logVisits = Math.log(nVisits+1);
+        AtomicReferenceArray<TreeNode> c = children;
+        // a leaf has no children to select
+        if(c == null) return -1;
+        double k = tree.raveEquivalence;
+        AtomicIntegerArray raveVisits = k > 0 ? amafVisits : null;
+        AtomicLongArray raveValues = amafValues;
+        for (int i = 0; i < moves.length; i++) {
+            TreeNode child = c.get(i);
+            // the player to move here never chooses a proven loss
+            if(child != null && child.proven == PROVEN_LOSS) continue;
+            // a child that has not been made has not been visited
+            double childVisits = child == null ? 0 : child.nVisits;
+            double childValue = child == null ? 0 : child.getValue();
+            double uctValue;
+            if(raveVisits == null) {
+                uctValue = childValue / (childVisits + EPSILON) +
+                        Math.sqrt(logVisits / (childVisits + EPSILON));
+            } else {
+                double amafCount = raveVisits.get(i);
+                double amafValue = amafCount == 0 ? 0
+                        : Double.longBitsToDouble(raveValues.get(i)) / amafCount;
+                double beta = Math.sqrt(k / (3 * childVisits + k));
+                double ownValue = childVisits == 0 ? 0 : childValue / childVisits;
+                uctValue = (1 - beta) * ownValue + beta * amafValue +
+                        Math.sqrt(logVisits / (childVisits + 1));
+            }
+            uctValue += r.nextDouble() * EPSILON;
             // small random number to break ties randomly in unexpanded nodes
             // System.out.println("UCT value = " + uctValue);
             if (uctValue > bestValue) {
-                selected = c;
+                selected = i;
                 bestValue = uctValue;
             }
         }
@@ -150,20 +809,104 @@ public class TreeNode {
      * @return the result
      */
     public double simulate(TreeNode tn) {
+        return simulate(tn, null);
+    }
+
+    /**
+     * Simulates the game from the given {@code TreeNode}
+     * @param tn the {@code TreeNode} to simulate from
+     * @param played a list to add the moves played to, or null
+     * @return the result
+     */
+    private double simulate(TreeNode tn, MoveList played) {
         // ultimately a roll out will end in some value
         // assume for now that it ends in a win or a loss
         // and just return this at random
         // Use a NN to minimax through later
-        Board copy = tn.b.deepCopy();
-        // copy.printBoard();
-        copy.setCurrentPlayer(!copy.currentPlayer());
-        while(!copy.isFinished()) {
-            copy.recalculateMoves();
-            if(copy.numOfLegalMoves() == 0) return (copy.currentPlayer())?-1:1;
-            int random = r.nextInt(copy.numOfLegalMoves());
-            copy.movePiece(random);
+        // The rollout is played on tn's own board and unmade afterwards
+        double result = rollout(tn.b, tree.random, played);
+        tn.b.recalculateMoves();
+        return result;
+    }
+
+    /**
+     * Simulates the game from the given {@code TreeNode} many times
+     * @param tn the {@code TreeNode} to simulate from
+     * @param rollouts how many times to simulate
+     * @param pool the pool to simulate in, or null to simulate on this thread
+     * @return the average result
+     */
+    public double simulate(TreeNode tn, int rollouts, ForkJoinPool pool) {
+        double total = 0;
+        if(pool == null) {
+            for(int i = 0; i < rollouts; i++) {
+                total += rollout(tn.b, tree.random);
+            }
+            tn.b.recalculateMoves();
+        } else {
+            List<RecursiveTask<Double>> tasks = new ArrayList<>(rollouts);
+            for(int i = 0; i < rollouts; i++) {
+                Board copy = tn.b.deepCopy();
+                SplittableRandom random = tree.random.split();
+                tasks.add(new RecursiveTask<Double>() {
+                    @Override
+                    protected Double compute() {
+                        return rollout(copy, random);
+                    }
+                });
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            for(RecursiveTask<Double> task : tasks) {
+                total += task.join();
+            }
         }
-        return copy.getResult();
+        return total / rollouts;
+    }
+
+    /**
+     * Plays random moves until the game ends, then unmakes them
+     * @param board the board to play on, which is left as it was
+     * @param r the random number generator to choose moves with
+     * @return the result: 1 if white won, -1 if black won, or 0 for a draw
+     */
+    static double rollout(Board board, SplittableRandom r) {
+        return rollout(board, r, null);
+    }
+
+    /**
+     * Plays random moves until the game ends, then unmakes them
+     * @param board the board to play on, which is left as it was
+     * @param r the random number generator to choose moves with
+     * @param played a list to add the moves played to, or null
+     * @return the result: 1 if white won, -1 if black won, or 0 for a draw
+     */
+    private static double rollout(Board board, SplittableRandom r, MoveList played) {
+        int depth = 0;
+        double result;
+        while(true) {
+            if(board.isFinished()) {
+                result = board.getResult();
+                break;
+            }
+            board.recalculateMoves();
+            if(board.numOfLegalMoves() == 0) {
+                result = (board.currentPlayer())?-1:1;
+                break;
+            }
+            int move = board.getLegalMove(r.nextInt(board.numOfLegalMoves()));
+            board.makeMove(move);
+            if(played != null) played.add(move);
+            depth++;
+        }
+        for(; depth > 0; depth--) {
+            board.unmakeMove();
+        }
+        return result;
     }
 
     /**
@@ -171,32 +914,153 @@ public class TreeNode {
      * @param value the value to change this {@code TreeNode}.
      */
     public void updateStats(double value) {
-        nVisits++;
-        totValue += value;
+        VISITS.incrementAndGet(this);
+        addResult(value);
+    }
+
+    /**
+     * Adds a result to the value and win counts, but not to the visits
+     * @param value the result, from white's view
+     */
+    private void addResult(double value) {
+        addValue(startingPlayer ? -value : value);
         if(value == 1) {
-            whiteWinCount++;
+            WHITE_WINS.incrementAndGet(this);
         } else if(value == -1) {
-            blackWinCount++;
+            BLACK_WINS.incrementAndGet(this);
+        }
+    }
+
+    /**
+     * Adds a result to the all-moves-as-first statistics of every move here
+     * that the player to move here played later in an iteration
+     * @param seen the moves that player played, after this node
+     * @param value the result, from white's view
+     */
+    private void addAmafResult(MoveSet seen, double value) {
+        // the statistics are made before the children are set
+        if(children == null) return;
+        AtomicIntegerArray raveVisits = amafVisits;
+        AtomicLongArray raveValues = amafValues;
+        if(raveVisits == null) return;
+        int[] m = moves;
+        double delta = startingPlayer ? value : -value;
+        for(int i = 0; i < m.length; i++) {
+            if(seen.contains(m[i])) {
+                raveVisits.incrementAndGet(i);
+                long current, next;
+                do {
+                    current = raveValues.get(i);
+                    next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+                } while(!raveValues.compareAndSet(i, current, next));
+            }
         }
     }
 
+    /**
+     * Counts a visit that has not been simulated yet as a loss
+     */
+    private void addVirtualLoss() {
+        VIRTUAL_LOSSES.incrementAndGet(this);
+        VISITS.incrementAndGet(this);
+        addValue(-VIRTUAL_LOSS);
+    }
+
+    /**
+     * Takes back a virtual loss, keeping its visit
+     */
+    private void removeVirtualLoss() {
+        addValue(VIRTUAL_LOSS);
+        VIRTUAL_LOSSES.decrementAndGet(this);
+    }
+
+    /**
+     * Adds to the value of this node atomically
+     * @param delta how much to add, from the view of the player who moved into this node
+     */
+    private void addValue(double delta) {
+        long current, next;
+        do {
+            current = totValue;
+            next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+        } while(!VALUE.compareAndSet(this, current, next));
+    }
+
+    /**
+     * Determines the total value of this node
+     * @return the total value, from the view of the player who moved into this node
+     */
+    public double getValue() {
+        return Double.longBitsToDouble(totValue);
+    }
+
+    /**
+     * Determines whether the result of this node has been proven,
+     * by reaching the end of the game under it in every line that matters.<br>
+     * With transpositions, a position reached again shares the proof of the
+     * first way it was reached, even where a draw by a rule such as repetition
+     * depends on the way.
+     * @return whether this node is proven
+     */
+    public boolean isSolved() {
+        return proven != UNPROVEN;
+    }
+
+    /**
+     * Determines the proven result of this node
+     * @return 1 for a proven win, -1 for a proven loss or 0 for a proven draw,
+     *          from the view of the player who moved into this node,
+     *          or NaN if it is not proven
+     */
+    public double getProvenValue() {
+        int result = proven;
+        return result == UNPROVEN ? Double.NaN : result - PROVEN_DRAW;
+    }
+
     /**
      * Determines how many children this {@code TreeNode} has.
      * If it is a leaf, then it returns 0.
      * @return how many children this {@code TreeNode} has
      */
     public int arity() {
-        return children == null ? 0 : children.length;
+        AtomicReferenceArray<TreeNode> c = children;
+        return c == null ? 0 : c.length();
+    }
+
+    /**
+     * Returns one of this {@code TreeNode}'s children
+     * @param index which child, in the order of the board's legal moves
+     * @return the child, or null if it has never been selected
+     */
+    public TreeNode getChild(int index) {
+        return children.get(index);
+    }
+
+    /**
+     * Returns the move that leads to one of this {@code TreeNode}'s children
+     * @param index which child, in the order of the board's legal moves
+     * @return the packed move (see {@link Move})
+     */
+    public int getChildMove(int index) {
+        return moves[index];
     }
 
     /**
      * Returns this {@code TreeNode}'s board
-     * @return 
+     * @return
      */
     public Board getBoard() {
         return b;
     }
-    
+
+    /**
+     * Returns the move that first led to this {@code TreeNode}
+     * @return the packed move (see {@link Move}), or -1 for a root
+     */
+    public int getMove() {
+        return move;
+    }
+
     /**
      * Returns this {@code TreeNode}'s best child
      * @return the best child
@@ -205,24 +1069,26 @@ public class TreeNode {
     @Deprecated
     public TreeNode bestChild() {
         if(isLeaf()) return null;
-        TreeNode best = children[0];
-        for(TreeNode child : children) {
-            if(best.winPercentage() < child.winPercentage()) {
+        TreeNode best = null;
+        for(int i = 0; i < arity(); i++) {
+            TreeNode child = children.get(i);
+            if(child == null) continue;
+            if(best == null || best.winPercentage() < child.winPercentage()) {
                 best = child;
             }
         }
         return best;
     }
-    
+
     /**
      * Determines how much of the play-throughs are wins
      * @return the win percentage
      */
     public double winPercentage() {
         if(startingPlayer) {
-            return whiteWinCount / nVisits;
+            return whiteWinCount / (double) nVisits;
         } else {
-            return blackWinCount / nVisits;
+            return blackWinCount / (double) nVisits;
         }
     }
 
@@ -233,7 +1099,17 @@ public class TreeNode {
     public double getVisits() {
         return nVisits;
     }
-    
+
+    /**
+     * Determines how many visits to this node are still being simulated.
+     * Each is counted in {@link #getVisits()}, and in {@link #getValue()}
+     * as a loss of {@link #VIRTUAL_LOSS}, until its result is backed up.
+     * @return the number of visits in progress, 0 once the search has stopped
+     */
+    public int getVirtualLosses() {
+        return virtualLosses;
+    }
+
     /**
      * Determines how many wins through a search a side has
      * @param isWhite which side
@@ -246,4 +1122,120 @@ public class TreeNode {
             return blackWinCount;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * What every node of one tree shares
+     */
+    private static final class Tree {
+        /**
+         * Every node of the tree by the hash of its position, 
+         * or null if transpositions are not shared
+         */
+        final ConcurrentMap<Long, TreeNode> table;
+
+        /**
+         * How many nodes the tree holds
+         */
+        final AtomicInteger nodes = new AtomicInteger(1);
+
+        /**
+         * The most nodes the tree may hold
+         */
+        volatile int nodeBudget = Integer.MAX_VALUE;
+
+        /**
+         * How many nodes the tree may hold before it is pruned again:
+         * the budget, unless the last prune could not get the tree 
+         * down to its target
+         */
+        volatile int pruneAt = Integer.MAX_VALUE;
+
+        /**
+         * Held for reading by every iteration of a search with many threads,
+         * and for writing while the tree is pruned
+         */
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * The random number generator of searches on one thread,
+         * which the generators of every other thread are split from
+         */
+        SplittableRandom random = new SplittableRandom();
+
+        /**
+         * The RAVE equivalence parameter, or 0 without RAVE
+         */
+        volatile double raveEquivalence;
+
+        /**
+         * The record of moves for RAVE of searches on one thread
+         */
+        private Amaf amaf;
+
+        /**
+         * Creates a Tree
+         * @param transpositions whether positions reached by different 
+         *          orders of moves should share one node
+         */
+        Tree(boolean transpositions) {
+            table = transpositions ? new ConcurrentHashMap<>() : null;
+        }
+
+        /**
+         * Determines whether the tree holds more nodes than it may 
+         * before it is pruned again
+         * @return whether the tree should be pruned
+         */
+        boolean overBudget() {
+            return nodes.get() > pruneAt;
+        }
+
+        /**
+         * Returns the record of moves for RAVE of searches on one thread
+         * @return the record, or null without RAVE
+         */
+        Amaf amaf() {
+            if(raveEquivalence <= 0) return null;
+            if(amaf == null) amaf = new Amaf();
+            return amaf;
+        }
+    }
+
+    /**
+     * The moves of one iteration, for RAVE, kept by one thread
+     * and reused by all of its iterations
+     */
+    private static final class Amaf {
+        /**
+         * The moves of the path, then of the rollout
+         */
+        final MoveList played = new MoveList();
+
+        /**
+         * The moves played from an even and from an odd depth on,
+         * by the player to move there
+         */
+        private final MoveSet[] seen = {new MoveSet(), new MoveSet()};
+
+        /**
+         * Adds the result of an iteration to the all-moves-as-first statistics
+         * of every node on its path, then forgets its moves
+         * @param visited the path, from the root down, with one move played
+         *          from every node on it but the last
+         * @param value the result, from white's view
+         */
+        void update(List<TreeNode> visited, double value) {
+            seen[0].clear();
+            seen[1].clear();
+            // the players take turns, so the moves at the same depth parity
+            // as a node are the ones the player to move there played
+            for(int depth = played.size() - 1; depth >= 0; depth--) {
+                seen[depth & 1].add(played.get(depth));
+                if(depth < visited.size()) {
+                    visited.get(depth).addAmafResult(seen[depth & 1], value);
+                }
+            }
+            played.clear();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package common;
+
+/**
+ * The random keys used to hash positions.<br>
+ * <br>
+ * A position's hash is the XOR of the key of every piece on its square,
+ * {@link #SIDE} if black is to move, and any keys for extra state
+ * (castling rights, en passant). Since XOR undoes itself, a Board can
+ * keep its hash up to date by XOR'ing in and out only what a move changes.<br>
+ * The keys come from a fixed seed, so hashes are the same on every run.
+ * @author Jed Wang
+ */
+public final class Zobrist {
+    /**
+     * How many kinds of pieces can be hashed
+     */
+    public static final int NUM_PIECE_CODES = 16;
+
+    /**
+     * The key of every kind of piece on every square
+     */
+    private static final long[][] PIECES = new long[NUM_PIECE_CODES][Board.NUM_SQUARES];
+
+    /**
+     * The key for black to move
+     */
+    public static final long SIDE;
+
+    /**
+     * The key of every combination of castling rights
+     */
+    private static final long[] CASTLING = new long[16];
+
+    /**
+     * The key of an en passant square on every column
+     */
+    private static final long[] EN_PASSANT = new long[8];
+
+    static {
+        long[] state = {0x9E3779B97F4A7C15L};
+        for(long[] keys : PIECES) {
+            for(int i = 0; i < keys.length; i++) {
+                keys[i] = next(state);
+            }
+        }
+        SIDE = next(state);
+        for(int i = 0; i < CASTLING.length; i++) {
+            CASTLING[i] = next(state);
+        }
+        for(int i = 0; i < EN_PASSANT.length; i++) {
+            EN_PASSANT[i] = next(state);
+        }
+    }
+
+    /**
+     * No instances.
+     */
+    private Zobrist() {
+    }
+
+    /**
+     * Generates the next key (SplitMix64)
+     * @param state the generator's state, advanced in place
+     * @return the next key
+     */
+    private static long next(long[] state) {
+        long z = (state[0] += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the key of a piece on a square
+     * @param pieceCode which kind of piece, from 0 to NUM_PIECE_CODES - 1
+     * @param index the index of the square
+     * @return the key
+     */
+    public static long piece(int pieceCode, int index) {
+        return PIECES[pieceCode][index];
+    }
+
+    /**
+     * Returns the key of a combination of castling rights
+     * @param castlingRights the castling rights, as 4 bits
+     * @return the key
+     */
+    public static long castling(int castlingRights) {
+        return CASTLING[castlingRights];
+    }
+
+    /**
+     * Returns the key of an en passant square
+     * @param index the index of the en passant square
+     * @return the key
+     */
+    public static long enPassant(int index) {
+        return EN_PASSANT[Board.indexColumn(index)];
+    }
+}